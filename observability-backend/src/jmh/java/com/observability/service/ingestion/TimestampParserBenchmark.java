@@ -0,0 +1,58 @@
+package com.observability.service.ingestion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timestamp parsing as done for every ingested span: {@link TimestampParser} over the JSON
+ * parser's character buffer, against the {@code OffsetDateTime} parse it replaced.
+ * Run with {@code mvn -Pbenchmark test-compile exec:exec}, which adds {@code -prof gc} so the
+ * results include the allocation rate of each variant.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampParserBenchmark {
+
+    private static final String ISO_NANOS = "2024-01-15T10:30:00.123456789Z";
+    private static final String ISO_OFFSET = "2024-01-15 10:30:00.123+05:30";
+    private static final String EPOCH_MILLIS = "1705314600123";
+
+    private final char[] isoNanos = ISO_NANOS.toCharArray();
+    private final char[] isoOffset = ISO_OFFSET.toCharArray();
+    private final char[] epochMillis = EPOCH_MILLIS.toCharArray();
+
+    @Benchmark
+    public long isoNanos() {
+        return TimestampParser.parseNanos(isoNanos, 0, isoNanos.length);
+    }
+
+    @Benchmark
+    public long isoOffset() {
+        return TimestampParser.parseNanos(isoOffset, 0, isoOffset.length);
+    }
+
+    @Benchmark
+    public long epochMillis() {
+        return TimestampParser.parseNanos(epochMillis, 0, epochMillis.length);
+    }
+
+    @Benchmark
+    public long isoNanosOffsetDateTime() {
+        OffsetDateTime time = OffsetDateTime.parse(new String(isoNanos));
+        return time.toEpochSecond() * 1_000_000_000L + time.getNano();
+    }
+}
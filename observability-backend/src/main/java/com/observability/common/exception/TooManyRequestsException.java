@@ -0,0 +1,18 @@
+package com.observability.common.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+/**
+ * Exception thrown when a caller is being throttled; rendered as 429 with a Retry-After header.
+ */
+@Getter
+public class TooManyRequestsException extends ObservabilityException {
+
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, String errorCode, long retryAfterSeconds) {
+        super(message, HttpStatus.TOO_MANY_REQUESTS, errorCode);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,56 @@
+package com.observability.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingest-time templating of operation names and HTTP routes (ingestion.endpoints.*), with optional
+ * per-team rewrite rules.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion.endpoints")
+public class EndpointTemplateProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * Distinct literal segments learned under one path prefix before further new ones become {id}
+     */
+    private int learnThreshold = 50;
+
+    /**
+     * Max learned path nodes per team; once reached, unseen segments become {id}
+     */
+    private int maxNodesPerTeam = 20_000;
+
+    /**
+     * Rules applied to every team, after the team's own rules
+     */
+    private List<Rule> rules = new ArrayList<>();
+
+    /**
+     * Rules per team id, tried before the default rules
+     */
+    private Map<Long, List<Rule>> teams = new HashMap<>();
+
+    @Data
+    public static class Rule {
+
+        /**
+         * Regular expression searched for in the operation name or URL path
+         */
+        private String pattern;
+
+        /**
+         * Replacement for every match; may reference groups ($1)
+         */
+        private String replacement = "{id}";
+    }
+}
@@ -0,0 +1,39 @@
+package com.observability.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-tenant admission control and fair-draining settings for the ingestion buffers (ingestion.admission.*).
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion.admission")
+public class IngestionAdmissionProperties {
+
+    /**
+     * Max rows a single team may have queued in one buffer
+     */
+    private int tenantMaxRows = 100_000;
+
+    /**
+     * Buffer fill ratio above which teams holding more than their fair share are throttled
+     */
+    private double highWatermark = 0.8;
+
+    /**
+     * Rows a weight-1 team may drain per round-robin turn
+     */
+    private int quantumRows = 1_000;
+
+    private int defaultWeight = 1;
+
+    /**
+     * Drain weight per team id, for teams that should get a larger share of insert capacity
+     */
+    private Map<Long, Integer> weights = new HashMap<>();
+}
@@ -0,0 +1,30 @@
+package com.observability.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSONEachRow passthrough inserts for trusted producers (ingestion.passthrough.*).
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion.passthrough")
+public class PassthroughProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * Team ids allowed to insert rows directly; rows from these teams skip buffering, sampling,
+     * templating and every other ingest-time transformation
+     */
+    private List<Long> teams = new ArrayList<>();
+
+    /**
+     * Max size of one row (line) of a passthrough body
+     */
+    private int maxRowKb = 1024;
+}
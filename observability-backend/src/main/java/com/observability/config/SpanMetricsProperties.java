@@ -0,0 +1,43 @@
+package com.observability.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ingest-time span metrics settings (ingestion.span-metrics.*), with optional per-team dimension sets.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion.span-metrics")
+public class SpanMetricsProperties {
+
+    private boolean enabled = true;
+
+    /**
+     * How often aggregated series are written to span_metrics_1m
+     */
+    private long flushIntervalMs = 10_000;
+
+    /**
+     * Max distinct series per team and minute; spans beyond it are folded into one overflow series
+     */
+    private int maxSeriesPerTeam = 5_000;
+
+    /**
+     * Dimensions every series is split by, in addition to service, span kind and root flag.
+     * Supported: operation_name, http_method, http_route, http_status_code, status, host, pod, container,
+     * and "attributes.[key]" for any span attribute.
+     */
+    private List<String> dimensions = new ArrayList<>(List.of("operation_name", "http_method", "http_status_code"));
+
+    /**
+     * Dimension sets per team id, replacing the default list
+     */
+    private Map<Long, List<String>> teams = new HashMap<>();
+}
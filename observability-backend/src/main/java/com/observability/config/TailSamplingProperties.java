@@ -0,0 +1,55 @@
+package com.observability.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tail-based trace sampling settings (ingestion.sampling.*), with optional per-team policy overrides.
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "ingestion.sampling")
+public class TailSamplingProperties {
+
+    private boolean enabled = false;
+
+    /**
+     * How long spans of a trace are held, from its first span, before the keep/drop decision
+     */
+    private long decisionWindowMs = 10_000;
+
+    /**
+     * Max traces held in memory; beyond this the oldest are decided early
+     */
+    private int maxPendingTraces = 200_000;
+
+    private Policy defaultPolicy = new Policy();
+
+    /**
+     * Policy overrides per team id
+     */
+    private Map<Long, Policy> teams = new HashMap<>();
+
+    @Data
+    public static class Policy {
+
+        /**
+         * Share of ordinary traces (no error, not slow) to keep, 0-100
+         */
+        private double samplePercent = 10;
+
+        /**
+         * Traces with any span at least this slow are always kept
+         */
+        private long latencyThresholdMs = 1_000;
+
+        /**
+         * Latency thresholds keyed by "service" or "service:operation", overriding latencyThresholdMs
+         */
+        private Map<String, Long> latencyThresholds = new HashMap<>();
+    }
+}
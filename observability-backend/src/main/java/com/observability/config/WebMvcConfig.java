@@ -0,0 +1,23 @@
+package com.observability.config;
+
+import com.observability.security.IngestionRateLimitInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * MVC configuration: request interceptors.
+ */
+@Configuration
+@RequiredArgsConstructor
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final IngestionRateLimitInterceptor ingestionRateLimitInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(ingestionRateLimitInterceptor)
+                .addPathPatterns("/api/ingest/**", "/v1/traces", "/v1/logs");
+    }
+}
@@ -56,6 +56,20 @@ public class ClickHouseDataController {
         return ResponseEntity.ok(clickHouseDataService.getMetricsTimeSeries(teamId, start, end, serviceName, interval));
     }
 
+    @GetMapping("/teams/{teamId}/span-metrics")
+    public ResponseEntity<List<Map<String, Object>>> getSpanMetrics(
+            @PathVariable UUID teamId,
+            @RequestParam(required = false) Long startTime,
+            @RequestParam(required = false) Long endTime,
+            @RequestParam(defaultValue = "service_name") List<String> groupBy,
+            @RequestParam(required = false) String serviceName,
+            @RequestParam(required = false) String interval,
+            @RequestParam(defaultValue = "1000") int limit) {
+        long end = endTime != null ? endTime : System.currentTimeMillis();
+        long start = startTime != null ? startTime : end - 3600000;
+        return ResponseEntity.ok(clickHouseDataService.getSpanMetrics(teamId, start, end, groupBy, serviceName, interval, limit));
+    }
+
     // ==================== LOGS ====================
 
     @GetMapping("/teams/{teamId}/logs")
@@ -67,10 +81,11 @@ public class ClickHouseDataController {
             @RequestParam(required = false) List<String> services,
             @RequestParam(required = false) String search,
             @RequestParam(defaultValue = "100") int limit,
-            @RequestParam(defaultValue = "0") int offset) {
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) String cursor) {
         long end = endTime != null ? endTime : System.currentTimeMillis();
         long start = startTime != null ? startTime : end - 3600000;
-        return ResponseEntity.ok(clickHouseDataService.getLogs(teamId, start, end, levels, services, search, limit, offset));
+        return ResponseEntity.ok(clickHouseDataService.getLogs(teamId, start, end, levels, services, search, limit, offset, cursor));
     }
 
     @GetMapping("/teams/{teamId}/logs/histogram")
@@ -84,6 +99,18 @@ public class ClickHouseDataController {
         return ResponseEntity.ok(clickHouseDataService.getLogHistogram(teamId, start, end, interval));
     }
 
+    @GetMapping("/teams/{teamId}/logs/patterns")
+    public ResponseEntity<List<Map<String, Object>>> getLogPatterns(
+            @PathVariable UUID teamId,
+            @RequestParam(required = false) Long startTime,
+            @RequestParam(required = false) Long endTime,
+            @RequestParam(required = false) List<String> services,
+            @RequestParam(defaultValue = "50") int limit) {
+        long end = endTime != null ? endTime : System.currentTimeMillis();
+        long start = startTime != null ? startTime : end - 3600000;
+        return ResponseEntity.ok(clickHouseDataService.getLogPatterns(teamId, start, end, services, limit));
+    }
+
     // ==================== TRACES ====================
 
     @GetMapping("/teams/{teamId}/traces")
@@ -96,10 +123,11 @@ public class ClickHouseDataController {
             @RequestParam(required = false) Long minDuration,
             @RequestParam(required = false) Long maxDuration,
             @RequestParam(defaultValue = "100") int limit,
-            @RequestParam(defaultValue = "0") int offset) {
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) String cursor) {
         long end = endTime != null ? endTime : System.currentTimeMillis();
         long start = startTime != null ? startTime : end - 3600000;
-        return ResponseEntity.ok(clickHouseDataService.getTraces(teamId, start, end, services, status, minDuration, maxDuration, limit, offset));
+        return ResponseEntity.ok(clickHouseDataService.getTraces(teamId, start, end, services, status, minDuration, maxDuration, limit, offset, cursor));
     }
 
     @GetMapping("/teams/{teamId}/traces/{traceId}/spans")
@@ -130,10 +158,11 @@ public class ClickHouseDataController {
             @RequestParam(required = false) List<String> severities,
             @RequestParam(required = false) List<String> services,
             @RequestParam(defaultValue = "100") int limit,
-            @RequestParam(defaultValue = "0") int offset) {
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(required = false) String cursor) {
         long end = endTime != null ? endTime : System.currentTimeMillis();
         long start = startTime != null ? startTime : end - 86400000 * 7;
-        return ResponseEntity.ok(clickHouseDataService.getIncidents(teamId, start, end, statuses, severities, services, limit, offset));
+        return ResponseEntity.ok(clickHouseDataService.getIncidents(teamId, start, end, statuses, severities, services, limit, offset, cursor));
     }
 
     // ==================== STATUS ====================
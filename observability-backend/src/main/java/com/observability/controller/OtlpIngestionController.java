@@ -0,0 +1,88 @@
+package com.observability.controller;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.observability.common.exception.ValidationException;
+import com.observability.security.TenantContext;
+import com.observability.service.TelemetryIngestionService;
+import io.opentelemetry.proto.collector.logs.v1.ExportLogsServiceRequest;
+import io.opentelemetry.proto.collector.logs.v1.ExportLogsServiceResponse;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceResponse;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.UUID;
+
+/**
+ * OTLP/HTTP endpoints accepting binary protobuf export requests from OpenTelemetry collectors and SDKs.
+ * Payloads are decoded straight into ClickHouse insert rows, bypassing JSON entirely.
+ */
+@RestController
+@RequestMapping("/v1")
+@RequiredArgsConstructor
+@CrossOrigin(origins = "*")
+@Tag(name = "OTLP Ingestion", description = "OpenTelemetry OTLP/HTTP protobuf ingestion")
+@Slf4j
+public class OtlpIngestionController {
+
+    public static final String APPLICATION_PROTOBUF = "application/x-protobuf";
+
+    private final TelemetryIngestionService ingestionService;
+
+    @PostMapping(value = "/traces", consumes = APPLICATION_PROTOBUF)
+    @Operation(summary = "OTLP trace export", description = "Accept an ExportTraceServiceRequest encoded as protobuf")
+    public ResponseEntity<byte[]> exportTraces(InputStream body) throws IOException {
+        ExportTraceServiceRequest request;
+        try {
+            request = ExportTraceServiceRequest.parseFrom(body);
+        } catch (InvalidProtocolBufferException e) {
+            throw new ValidationException("Invalid OTLP trace payload: " + e.getMessage());
+        }
+
+        int accepted = ingestionService.ingestOtlpTraces(resolveTeamUuid(), request);
+        log.debug("Accepted {} spans via OTLP", accepted);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_PROTOBUF))
+                .body(ExportTraceServiceResponse.getDefaultInstance().toByteArray());
+    }
+
+    @PostMapping(value = "/logs", consumes = APPLICATION_PROTOBUF)
+    @Operation(summary = "OTLP logs export", description = "Accept an ExportLogsServiceRequest encoded as protobuf")
+    public ResponseEntity<byte[]> exportLogs(InputStream body) throws IOException {
+        ExportLogsServiceRequest request;
+        try {
+            request = ExportLogsServiceRequest.parseFrom(body);
+        } catch (InvalidProtocolBufferException e) {
+            throw new ValidationException("Invalid OTLP logs payload: " + e.getMessage());
+        }
+
+        int accepted = ingestionService.ingestOtlpLogs(resolveTeamUuid(), request);
+        log.debug("Accepted {} log records via OTLP", accepted);
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType(APPLICATION_PROTOBUF))
+                .body(ExportLogsServiceResponse.getDefaultInstance().toByteArray());
+    }
+
+    private UUID resolveTeamUuid() {
+        Long teamId = TenantContext.getTeamId();
+        if (teamId == null) {
+            log.warn("No teamId in context - using default team 1");
+            teamId = 1L;
+        }
+        return convertTeamIdToUuid(teamId);
+    }
+
+    private UUID convertTeamIdToUuid(Long teamId) {
+        String uuidString = String.format("00000000-0000-0000-0000-%012d", teamId);
+        return UUID.fromString(uuidString);
+    }
+}
@@ -1,24 +1,43 @@
 package com.observability.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.observability.common.exception.AccessDeniedException;
+import com.observability.common.exception.ObservabilityException;
 import com.observability.common.response.ApiResponse;
 import com.observability.dto.request.LogRequest;
 import com.observability.dto.request.SpanRequest;
 import com.observability.security.TenantContext;
 import com.observability.service.TelemetryIngestionService;
+import com.observability.service.ingestion.JsonTelemetryDecoder;
 import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.IntConsumer;
 
 /**
  * Controller for ingesting telemetry data (spans, logs) into ClickHouse.
  * Supports OpenTelemetry-compatible ingestion.
+ * Data is buffered and inserted asynchronously, so successful requests return 202 Accepted.
+ * NDJSON streams are acknowledged with progress lines on the response while the request is still open.
+ * Trusted teams may also insert JSONEachRow bodies synchronously through the passthrough endpoints.
  */
 @RestController
 @RequestMapping("/api/ingest")
@@ -28,94 +47,188 @@ import java.util.UUID;
 @Slf4j
 public class TelemetryIngestionController {
 
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private final TelemetryIngestionService ingestionService;
+    private final ObjectMapper objectMapper;
 
-    @PostMapping("/spans")
-    @Operation(summary = "Ingest spans/traces", description = "Batch ingest spans (traces) into ClickHouse")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> ingestSpans(
-            @RequestBody List<SpanRequest> spans) {
-        
-        Long teamId = TenantContext.getTeamId();
-        if (teamId == null) {
-            log.warn("No teamId in context - using default team 1");
-            teamId = 1L;
-        }
+    @Value("${ingestion.ndjson.ack-interval-ms:1000}")
+    private long ndjsonAckIntervalMs;
 
+    @PostMapping(value = "/spans", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Ingest spans/traces", description = "Accept spans (traces) for asynchronous batch insertion into ClickHouse")
+    @io.swagger.v3.oas.annotations.parameters.RequestBody(content = @Content(
+            array = @ArraySchema(schema = @Schema(implementation = SpanRequest.class))))
+    public ResponseEntity<ApiResponse<Map<String, Object>>> ingestSpans(InputStream body) throws IOException {
+        Long teamId = resolveTeamId();
         UUID teamUuid = convertTeamIdToUuid(teamId);
-        ingestionService.ingestSpans(teamUuid, spans);
+        int accepted = ingestionService.ingestSpans(teamUuid, body);
 
         Map<String, Object> result = Map.of(
-                "ingested", spans.size(),
+                "ingested", accepted,
                 "teamId", teamId,
                 "type", "spans"
         );
 
-        return ResponseEntity.ok(ApiResponse.success(result));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(ApiResponse.success(result));
     }
 
-    @PostMapping("/logs")
-    @Operation(summary = "Ingest logs", description = "Batch ingest logs into ClickHouse")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> ingestLogs(
-            @RequestBody List<LogRequest> logs) {
-        
-        Long teamId = TenantContext.getTeamId();
-        if (teamId == null) {
-            log.warn("No teamId in context - using default team 1");
-            teamId = 1L;
-        }
-
+    @PostMapping(value = "/logs", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Ingest logs", description = "Accept logs for asynchronous batch insertion into ClickHouse")
+    @io.swagger.v3.oas.annotations.parameters.RequestBody(content = @Content(
+            array = @ArraySchema(schema = @Schema(implementation = LogRequest.class))))
+    public ResponseEntity<ApiResponse<Map<String, Object>>> ingestLogs(InputStream body) throws IOException {
+        Long teamId = resolveTeamId();
         UUID teamUuid = convertTeamIdToUuid(teamId);
-        ingestionService.ingestLogs(teamUuid, logs);
+        int accepted = ingestionService.ingestLogs(teamUuid, body);
 
         Map<String, Object> result = Map.of(
-                "ingested", logs.size(),
+                "ingested", accepted,
                 "teamId", teamId,
                 "type", "logs"
         );
 
-        return ResponseEntity.ok(ApiResponse.success(result));
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(ApiResponse.success(result));
     }
 
-    @PostMapping("/batch")
-    @Operation(summary = "Ingest mixed telemetry data", description = "Batch ingest spans and logs together")
-    public ResponseEntity<ApiResponse<Map<String, Object>>> ingestBatch(
-            @RequestBody Map<String, Object> payload) {
-        
-        Long teamId = TenantContext.getTeamId();
-        if (teamId == null) {
-            log.warn("No teamId in context - using default team 1");
-            teamId = 1L;
-        }
+    @PostMapping(value = "/spans", consumes = APPLICATION_NDJSON, produces = APPLICATION_NDJSON)
+    @Operation(summary = "Stream spans as NDJSON", description = "Accept one SpanRequest per line over a long-lived chunked request, "
+            + "answering with periodic {\"accepted\": n} acknowledgement lines")
+    public void streamSpans(InputStream body, HttpServletResponse response) throws IOException {
+        UUID teamUuid = convertTeamIdToUuid(resolveTeamId());
+        streamNdjson(response, onAccepted -> ingestionService.streamSpans(teamUuid, body, onAccepted));
+    }
+
+    @PostMapping(value = "/logs", consumes = APPLICATION_NDJSON, produces = APPLICATION_NDJSON)
+    @Operation(summary = "Stream logs as NDJSON", description = "Accept one LogRequest per line over a long-lived chunked request, "
+            + "answering with periodic {\"accepted\": n} acknowledgement lines")
+    public void streamLogs(InputStream body, HttpServletResponse response) throws IOException {
+        UUID teamUuid = convertTeamIdToUuid(resolveTeamId());
+        streamNdjson(response, onAccepted -> ingestionService.streamLogs(teamUuid, body, onAccepted));
+    }
 
+    @PostMapping(value = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @Operation(summary = "Ingest mixed telemetry data",
+            description = "Batch ingest spans and logs together from a {\"spans\": [...], \"logs\": [...]} object, decoded in one pass")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> ingestBatch(InputStream body) throws IOException {
+        Long teamId = resolveTeamId();
         UUID teamUuid = convertTeamIdToUuid(teamId);
+        JsonTelemetryDecoder.BatchCounts counts = ingestionService.ingestBatch(teamUuid, body);
+
+        Map<String, Object> result = Map.of(
+                "spansIngested", counts.spans(),
+                "logsIngested", counts.logs(),
+                "teamId", teamId
+        );
 
-        int spansIngested = 0;
-        int logsIngested = 0;
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(ApiResponse.success(result));
+    }
 
-        // Ingest spans if present
-        if (payload.containsKey("spans")) {
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> spanMaps = (List<Map<String, Object>>) payload.get("spans");
-            // Convert to SpanRequest objects (simplified - in production use proper mapping)
-            log.info("Received {} spans for ingestion", spanMaps.size());
-            spansIngested = spanMaps.size();
+    @PostMapping(value = "/passthrough/spans", consumes = APPLICATION_NDJSON)
+    @Operation(summary = "Insert JSONEachRow spans", description = "Trusted teams only: pipe rows already in the spans table layout "
+            + "straight into ClickHouse, with the team id injected. Returns once the rows are inserted")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> insertSpansPassthrough(InputStream body) {
+        Long teamId = resolveTeamId();
+        int inserted = ingestionService.insertSpansPassthrough(convertTeamIdToUuid(teamId), body);
+        return ResponseEntity.ok(ApiResponse.success(Map.of("inserted", inserted, "teamId", teamId, "type", "spans")));
+    }
+
+    @PostMapping(value = "/passthrough/logs", consumes = APPLICATION_NDJSON)
+    @Operation(summary = "Insert JSONEachRow logs", description = "Trusted teams only: pipe rows already in the logs table layout "
+            + "straight into ClickHouse, with the team id injected. Returns once the rows are inserted")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> insertLogsPassthrough(InputStream body) {
+        Long teamId = resolveTeamId();
+        int inserted = ingestionService.insertLogsPassthrough(convertTeamIdToUuid(teamId), body);
+        return ResponseEntity.ok(ApiResponse.success(Map.of("inserted", inserted, "teamId", teamId, "type", "logs")));
+    }
+
+    @GetMapping("/buffers")
+    @Operation(summary = "Get ingestion buffer stats", description = "Admins only: pending, flushed and dropped rows per ingestion buffer, across all teams")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getBufferStats() {
+        if (!TenantContext.isAdmin()) {
+            throw new AccessDeniedException("Ingestion buffer stats cover all teams and are restricted to admins");
+        }
+        return ResponseEntity.ok(ApiResponse.success(ingestionService.getBufferStats()));
+    }
+
+    @GetMapping("/buffers/tenants")
+    @Operation(summary = "Get team queue depth", description = "Rows of the current team queued in each ingestion buffer")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getTenantQueueDepth() {
+        UUID teamUuid = convertTeamIdToUuid(resolveTeamId());
+        return ResponseEntity.ok(ApiResponse.success(ingestionService.getTenantQueueDepth(teamUuid)));
+    }
+
+    @GetMapping("/fields/cardinality")
+    @Operation(summary = "Get field cardinality", description = "Distinct values ingested per low-cardinality field for the current team")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getFieldCardinality() {
+        UUID teamUuid = convertTeamIdToUuid(resolveTeamId());
+        return ResponseEntity.ok(ApiResponse.success(ingestionService.getFieldCardinality(teamUuid)));
+    }
+
+    @GetMapping("/attributes/cardinality")
+    @Operation(summary = "Get attribute cardinality", description = "Span and log attribute keys of the current team with the most distinct values")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> getAttributeCardinality(
+            @RequestParam(defaultValue = "20") int limit) {
+        UUID teamUuid = convertTeamIdToUuid(resolveTeamId());
+        return ResponseEntity.ok(ApiResponse.success(ingestionService.getAttributeCardinality(teamUuid, limit)));
+    }
+
+    /**
+     * Run a stream ingestion, writing an acknowledgement line at most every ack interval plus a
+     * final one. Errors before the first acknowledgement propagate as regular error responses;
+     * later ones can only be reported as a last line carrying the error.
+     */
+    private void streamNdjson(HttpServletResponse response, StreamIngestion ingestion) throws IOException {
+        response.setStatus(HttpStatus.OK.value());
+        response.setContentType(APPLICATION_NDJSON);
+        OutputStream out = response.getOutputStream();
+        long[] accepted = new long[1];
+        long[] lastAck = {System.nanoTime()};
+        try {
+            ingestion.run(rows -> {
+                accepted[0] += rows;
+                long now = System.nanoTime();
+                if (now - lastAck[0] >= ndjsonAckIntervalMs * 1_000_000L) {
+                    lastAck[0] = now;
+                    writeLine(out, Map.of("accepted", accepted[0]));
+                }
+            });
+        } catch (ObservabilityException e) {
+            if (!response.isCommitted()) {
+                response.reset();
+                throw e;
+            }
+            Map<String, Object> error = new LinkedHashMap<>();
+            error.put("accepted", accepted[0]);
+            error.put("error", Map.of("code", e.getErrorCode(), "message", e.getMessage()));
+            writeLine(out, error);
+            return;
         }
+        writeLine(out, Map.of("accepted", accepted[0], "done", true));
+    }
 
-        // Ingest logs if present
-        if (payload.containsKey("logs")) {
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> logMaps = (List<Map<String, Object>>) payload.get("logs");
-            log.info("Received {} logs for ingestion", logMaps.size());
-            logsIngested = logMaps.size();
+    private void writeLine(OutputStream out, Map<String, Object> line) {
+        try {
+            out.write(objectMapper.writeValueAsBytes(line));
+            out.write('\n');
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
+    }
 
-        Map<String, Object> result = Map.of(
-                "spansIngested", spansIngested,
-                "logsIngested", logsIngested,
-                "teamId", teamId
-        );
+    private Long resolveTeamId() {
+        Long teamId = TenantContext.getTeamId();
+        if (teamId == null) {
+            log.warn("No teamId in context - using default team 1");
+            teamId = 1L;
+        }
+        return teamId;
+    }
 
-        return ResponseEntity.ok(ApiResponse.success(result));
+    @FunctionalInterface
+    private interface StreamIngestion {
+        int run(IntConsumer onAccepted) throws IOException;
     }
 
     private UUID convertTeamIdToUuid(Long teamId) {
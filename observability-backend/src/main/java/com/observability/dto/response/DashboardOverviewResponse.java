@@ -22,6 +22,12 @@ public class DashboardOverviewResponse {
     private TracesSummary traces;
     private TimeRange timeRange;
 
+    /**
+     * Whether some sections are missing because their query timed out or failed
+     */
+    private boolean partial;
+    private List<String> unavailable;
+
     @Data
     @Builder
     @NoArgsConstructor
@@ -37,7 +43,7 @@ public class DashboardOverviewResponse {
     @NoArgsConstructor
     @AllArgsConstructor
     public static class LogsSummary {
-        private long count;
+        private long count;  // Logs in the time range
         private List<Map<String, Object>> recent;  // Raw maps from ClickHouse
         private Map<String, Long> levelCounts;
     }
@@ -47,7 +53,7 @@ public class DashboardOverviewResponse {
     @NoArgsConstructor
     @AllArgsConstructor
     public static class TracesSummary {
-        private long count;
+        private long count;  // Traces in the time range, weighted by sample rate
         private List<Map<String, Object>> recent;  // Raw maps from ClickHouse
         private Map<String, Long> statusCounts;
     }
@@ -23,11 +23,13 @@ public class ClickHouseIncidentsRepository {
     private final JdbcTemplate jdbcTemplate;
 
     /**
-     * Query incidents with filters
+     * Query incidents with filters, newest first. Pages after the first are read from the
+     * position of {@code cursor}, following the (created_at, incident_id) sorting key;
+     * {@code offset} only applies without one.
      */
-    public List<Map<String, Object>> getIncidents(UUID teamId, Instant startTime, Instant endTime,
+    public KeysetPage getIncidents(UUID teamId, Instant startTime, Instant endTime,
             List<String> statuses, List<String> severities, List<String> services,
-            int limit, int offset) {
+            int limit, int offset, PageCursor cursor) {
         
         StringBuilder sql = new StringBuilder("""
             SELECT 
@@ -46,7 +48,9 @@ public class ClickHouseIncidentsRepository {
                 acknowledged_at,
                 acknowledged_by,
                 pod,
-                container
+                container,
+                toUnixTimestamp(created_at) AS cursor_time,
+                toString(incident_id) AS cursor_key
             FROM observex.incidents
             WHERE team_id = ?
                 AND created_at >= ?
@@ -79,11 +83,19 @@ public class ClickHouseIncidentsRepository {
             params.addAll(services);
         }
         
-        sql.append(" ORDER BY created_at DESC LIMIT ? OFFSET ?");
-        params.add(limit);
-        params.add(offset);
-        
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+        if (cursor != null) {
+            sql.append(" AND created_at <= fromUnixTimestamp(?)");
+            sql.append(" AND (created_at < fromUnixTimestamp(?) OR incident_id < toUUID(?))");
+            params.add(cursor.epochSecond());
+            params.add(cursor.epochSecond());
+            params.add(cursor.uuidKey());
+        }
+
+        sql.append(" ORDER BY created_at DESC, incident_id DESC LIMIT ? OFFSET ?");
+        params.add(limit + 1);
+        params.add(cursor != null ? 0 : offset);
+
+        return KeysetPage.of(jdbcTemplate.queryForList(sql.toString(), params.toArray()), limit);
     }
 
     /**
@@ -1,11 +1,15 @@
 package com.observability.repository.clickhouse;
 
+import com.clickhouse.data.ClickHouseWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.stereotype.Repository;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
@@ -20,15 +24,24 @@ import java.util.*;
 @RequiredArgsConstructor
 public class ClickHouseLogsRepository {
 
+    /**
+     * Tie-breaker ordering logs of the same second. Logs carry no id, so rows are told apart by a
+     * hash of every returned column. Rows sharing it are identical as returned, so the cursor
+     * counts how many of them were already read and the next page skips that many.
+     */
+    private static final String LOG_ROW_KEY =
+            "cityHash64(level, service_name, host, pod, container, thread, logger, trace_id, span_id, message, exception)";
+
     @Qualifier("clickHouseJdbcTemplate")
     private final JdbcTemplate jdbcTemplate;
 
     /**
-     * Query logs with filters and pagination
+     * Query logs with filters, newest first. Pages after the first are read from the position
+     * of {@code cursor} rather than by skipping rows; {@code offset} only applies without one.
      */
-    public List<Map<String, Object>> getLogs(UUID teamId, Instant startTime, Instant endTime,
+    public KeysetPage getLogs(UUID teamId, Instant startTime, Instant endTime,
             List<String> levels, List<String> services, String searchQuery,
-            int limit, int offset) {
+            int limit, int offset, PageCursor cursor) {
         
         StringBuilder sql = new StringBuilder("""
             SELECT 
@@ -43,12 +56,14 @@ public class ClickHouseLogsRepository {
                 pod,
                 container,
                 thread,
-                exception
+                exception,
+                toUnixTimestamp(timestamp) AS cursor_time,
+                toString(%s) AS cursor_key
             FROM observex.logs
             WHERE team_id = ?
                 AND timestamp >= ?
                 AND timestamp <= ?
-            """);
+            """.formatted(LOG_ROW_KEY));
         
         List<Object> params = new ArrayList<>();
         params.add(teamId.toString());
@@ -74,11 +89,21 @@ public class ClickHouseLogsRepository {
             params.add("%" + searchQuery + "%");
         }
         
-        sql.append(" ORDER BY timestamp DESC LIMIT ? OFFSET ?");
-        params.add(limit);
-        params.add(offset);
-        
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+        if (cursor != null) {
+            // Expanded form of (timestamp, key) <= (?, ?) so the primary key still prunes on timestamp;
+            // rows at exactly the cursor sort first and those already returned are skipped by OFFSET
+            sql.append(" AND timestamp <= fromUnixTimestamp(?) AND (timestamp < fromUnixTimestamp(?) OR ");
+            sql.append(LOG_ROW_KEY).append(" <= toUInt64(?))");
+            params.add(cursor.epochSecond());
+            params.add(cursor.epochSecond());
+            params.add(cursor.unsignedKey());
+        }
+
+        sql.append(" ORDER BY timestamp DESC, ").append(LOG_ROW_KEY).append(" DESC LIMIT ? OFFSET ?");
+        params.add(limit + 1);
+        params.add(cursor != null ? cursor.duplicates() : offset);
+
+        return KeysetPage.ofNonUnique(jdbcTemplate.queryForList(sql.toString(), params.toArray()), limit, cursor);
     }
 
     /**
@@ -87,18 +112,7 @@ public class ClickHouseLogsRepository {
     public Map<String, Object> getLogFacets(UUID teamId, Instant startTime, Instant endTime) {
         Map<String, Object> facets = new HashMap<>();
         
-        // Level counts
-        String levelSql = """
-            SELECT level, count() as count
-            FROM observex.logs
-            WHERE team_id = ? AND timestamp >= ? AND timestamp <= ?
-            GROUP BY level
-            ORDER BY count DESC
-            """;
-        facets.put("levels", jdbcTemplate.queryForList(levelSql,
-            teamId.toString(),
-            LocalDateTime.ofInstant(startTime, ZoneOffset.UTC),
-            LocalDateTime.ofInstant(endTime, ZoneOffset.UTC)));
+        facets.put("levels", getLevelCounts(teamId, startTime, endTime));
         
         // Service counts
         String serviceSql = """
@@ -113,10 +127,84 @@ public class ClickHouseLogsRepository {
             teamId.toString(),
             LocalDateTime.ofInstant(startTime, ZoneOffset.UTC),
             LocalDateTime.ofInstant(endTime, ZoneOffset.UTC)));
+
+        facets.put("patterns", getLogPatterns(teamId, startTime, endTime, null, 10));
         
         return facets;
     }
 
+    /**
+     * Get log counts per level, the level facet alone
+     */
+    public List<Map<String, Object>> getLevelCounts(UUID teamId, Instant startTime, Instant endTime) {
+        return getLevelCounts(teamId, startTime, endTime, "");
+    }
+
+    /**
+     * Get log counts per level, aborted by ClickHouse once the query has run for
+     * {@code maxExecutionTime}
+     */
+    public List<Map<String, Object>> getLevelCounts(UUID teamId, Instant startTime, Instant endTime,
+            Duration maxExecutionTime) {
+        long seconds = Math.max(1, (maxExecutionTime.toMillis() + 999) / 1000);
+        return getLevelCounts(teamId, startTime, endTime, " SETTINGS max_execution_time = " + seconds);
+    }
+
+    private List<Map<String, Object>> getLevelCounts(UUID teamId, Instant startTime, Instant endTime,
+            String settings) {
+        String sql = """
+            SELECT level, count() as count
+            FROM observex.logs
+            WHERE team_id = ? AND timestamp >= ? AND timestamp <= ?
+            GROUP BY level
+            ORDER BY count DESC
+            """ + settings;
+        return jdbcTemplate.queryForList(sql,
+            teamId.toString(),
+            LocalDateTime.ofInstant(startTime, ZoneOffset.UTC),
+            LocalDateTime.ofInstant(endTime, ZoneOffset.UTC));
+    }
+
+    /**
+     * Get the most frequent mined message templates, grouped on pattern_id rather than the raw message
+     */
+    public List<Map<String, Object>> getLogPatterns(UUID teamId, Instant startTime, Instant endTime,
+            List<String> services, int limit) {
+        StringBuilder sql = new StringBuilder("""
+            SELECT
+                toString(pattern_id) as pattern_id,
+                argMax(pattern, timestamp) as pattern,
+                count() as count,
+                countIf(level IN ('ERROR', 'FATAL')) as error_count,
+                groupUniqArray(5)(service_name) as services,
+                min(timestamp) as first_seen,
+                max(timestamp) as last_seen,
+                any(message) as sample_message
+            FROM observex.logs
+            WHERE team_id = ?
+                AND timestamp >= ?
+                AND timestamp <= ?
+                AND pattern_id != 0
+            """);
+
+        List<Object> params = new ArrayList<>();
+        params.add(teamId.toString());
+        params.add(LocalDateTime.ofInstant(startTime, ZoneOffset.UTC));
+        params.add(LocalDateTime.ofInstant(endTime, ZoneOffset.UTC));
+
+        if (services != null && !services.isEmpty()) {
+            sql.append(" AND service_name IN (");
+            sql.append(String.join(",", Collections.nCopies(services.size(), "?")));
+            sql.append(")");
+            params.addAll(services);
+        }
+
+        sql.append(" GROUP BY pattern_id ORDER BY count DESC LIMIT ?");
+        params.add(limit);
+
+        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+    }
+
     /**
      * Get log histogram (counts per time bucket)
      */
@@ -144,30 +232,57 @@ public class ClickHouseLogsRepository {
     }
 
     /**
-     * Batch insert logs
+     * Batch insert logs, streamed to ClickHouse as compressed RowBinary
      */
-    public void batchInsert(List<Map<String, Object>> logs) {
-        String sql = """
-            INSERT INTO observex.logs 
-            (team_id, timestamp, level, service_name, logger, message, trace_id, span_id,
-             host, pod, container, thread, exception, attributes)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-            """;
-        
-        List<Object[]> batchArgs = logs.stream()
-            .map(l -> new Object[]{
-                l.get("team_id"), l.get("timestamp"), l.get("level"),
-                l.get("service_name"), l.get("logger"), l.get("message"),
-                l.get("trace_id"), l.get("span_id"), l.get("host"),
-                l.get("pod"), l.get("container"), l.get("thread"),
-                l.get("exception"), l.get("attributes")
-            })
-            .toList();
-        
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+    public void batchInsert(List<LogRow> logs) {
+        String sql = "INSERT INTO observex.logs (" + LogRow.COLUMNS + ") FORMAT RowBinary";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, (ClickHouseWriter) out -> {
+                RowBinaryWriter writer = new RowBinaryWriter(out);
+                for (LogRow logRow : logs) {
+                    logRow.writeRowBinary(writer);
+                }
+                writer.flush();
+            });
+            return ps.executeUpdate();
+        });
         log.debug("Inserted {} logs into ClickHouse", logs.size());
     }
 
+    /**
+     * Insert batches that are already RowBinary encoded (as written to the ingestion WAL)
+     * @param columns column list the batches were encoded with
+     */
+    public void insertRowBinary(String columns, List<ByteBuffer> encodedBatches) {
+        String sql = "INSERT INTO observex.logs (" + columns + ") FORMAT RowBinary";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, (ClickHouseWriter) out -> {
+                RowBinaryWriter writer = new RowBinaryWriter(out);
+                for (ByteBuffer encoded : encodedBatches) {
+                    writer.writeRaw(encoded);
+                }
+                writer.flush();
+            });
+            return ps.executeUpdate();
+        });
+        log.debug("Replayed {} encoded batches into ClickHouse logs", encodedBatches.size());
+    }
+
+    /**
+     * Insert rows written by {@code rows} in JSONEachRow format, as sent by trusted producers.
+     * Columns a row leaves out take their table defaults.
+     */
+    public void insertJsonEachRow(ClickHouseWriter rows) {
+        String sql = "INSERT INTO observex.logs FORMAT JSONEachRow";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, rows);
+            return ps.executeUpdate();
+        });
+    }
+
     private String getIntervalFunction(String interval) {
         return switch (interval.toLowerCase()) {
             case "1m", "minute" -> "toStartOfMinute";
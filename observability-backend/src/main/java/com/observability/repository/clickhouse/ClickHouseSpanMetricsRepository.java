@@ -0,0 +1,152 @@
+package com.observability.repository.clickhouse;
+
+import com.clickhouse.data.ClickHouseWriter;
+import com.observability.common.exception.ValidationException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.stereotype.Repository;
+
+import java.lang.reflect.Array;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * ClickHouse repository for the span_metrics_1m table, which holds RED metrics aggregated per
+ * minute at ingestion. Queries read pre-aggregated series instead of raw spans; percentiles
+ * are estimated from the summed latency histograms.
+ */
+@Repository
+@Slf4j
+@RequiredArgsConstructor
+public class ClickHouseSpanMetricsRepository {
+
+    private static final Set<String> COLUMN_DIMENSIONS = Set.of("service_name", "span_kind", "is_root");
+    private static final Pattern DIMENSION_NAME = Pattern.compile("[A-Za-z0-9_.\\-]{1,128}");
+
+    @Qualifier("clickHouseJdbcTemplate")
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Aggregate span metrics over a time range, grouped by the given dimensions
+     * @param groupBy service_name, span_kind, is_root or any configured dimension name
+     * @param interval optional time bucket (1m, 5m, 1h, 1d); null for one row per group
+     */
+    public List<Map<String, Object>> getSpanMetrics(UUID teamId, Instant start, Instant end,
+            List<String> groupBy, String serviceName, String interval, int limit) {
+        List<String> dimensions = groupBy != null ? groupBy : List.of();
+        List<Object> selectParams = new ArrayList<>();
+        StringBuilder select = new StringBuilder("SELECT ");
+        List<String> groupColumns = new ArrayList<>();
+
+        if (interval != null) {
+            select.append(intervalFunction(interval)).append("(timestamp) as time_bucket, ");
+            groupColumns.add("time_bucket");
+        }
+        for (int i = 0; i < dimensions.size(); i++) {
+            String dimension = dimensions.get(i);
+            if (COLUMN_DIMENSIONS.contains(dimension)) {
+                select.append(dimension).append(", ");
+                groupColumns.add(dimension);
+            } else if (DIMENSION_NAME.matcher(dimension).matches()) {
+                select.append("dimensions[?] as d").append(i).append(", ");
+                selectParams.add(dimension);
+                groupColumns.add("d" + i);
+            } else {
+                throw new ValidationException("Invalid metrics dimension '" + dimension + "'");
+            }
+        }
+        select.append("""
+                sum(span_count) as request_count,
+                sum(error_count) as error_count,
+                sum(duration_sum_ms) / greatest(sum(span_count), 1) as avg_latency,
+                max(duration_max_ms) as max_latency,
+                sumForEach(latency_buckets) as latency_buckets
+            FROM observex.span_metrics_1m
+            WHERE team_id = ?
+                AND timestamp >= fromUnixTimestamp64Milli(?)
+                AND timestamp <= fromUnixTimestamp64Milli(?)
+            """);
+
+        List<Object> params = new ArrayList<>(selectParams);
+        params.add(teamId.toString());
+        params.add(start.toEpochMilli());
+        params.add(end.toEpochMilli());
+
+        if (serviceName != null) {
+            select.append(" AND service_name = ?");
+            params.add(serviceName);
+        }
+        if (!groupColumns.isEmpty()) {
+            select.append(" GROUP BY ").append(String.join(", ", groupColumns));
+        }
+        select.append(interval != null ? " ORDER BY time_bucket ASC" : " ORDER BY request_count DESC");
+        select.append(" LIMIT ?");
+        params.add(limit);
+
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(select.toString(), params.toArray());
+        for (Map<String, Object> row : rows) {
+            for (int i = 0; i < dimensions.size(); i++) {
+                if (row.containsKey("d" + i)) {
+                    row.put(dimensions.get(i), row.remove("d" + i));
+                }
+            }
+            long[] buckets = toCounts(row.remove("latency_buckets"));
+            row.put("p50_latency", LatencyHistogram.quantile(buckets, 0.50));
+            row.put("p95_latency", LatencyHistogram.quantile(buckets, 0.95));
+            row.put("p99_latency", LatencyHistogram.quantile(buckets, 0.99));
+        }
+        return rows;
+    }
+
+    /**
+     * Batch insert aggregated series, streamed to ClickHouse as compressed RowBinary
+     */
+    public void batchInsert(List<SpanMetricRow> rows) {
+        String sql = "INSERT INTO observex.span_metrics_1m (" + SpanMetricRow.COLUMNS + ") FORMAT RowBinary";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, (ClickHouseWriter) out -> {
+                RowBinaryWriter writer = new RowBinaryWriter(out);
+                for (SpanMetricRow row : rows) {
+                    row.writeRowBinary(writer);
+                }
+                writer.flush();
+            });
+            return ps.executeUpdate();
+        });
+        log.debug("Inserted {} span metric rows into ClickHouse", rows.size());
+    }
+
+    private String intervalFunction(String interval) {
+        return switch (interval) {
+            case "5m" -> "toStartOfFiveMinutes";
+            case "1h" -> "toStartOfHour";
+            case "1d" -> "toStartOfDay";
+            default -> "toStartOfMinute";
+        };
+    }
+
+    /**
+     * The driver may hand back a UInt64 array as java.sql.Array, a primitive array or boxed numbers
+     */
+    private static long[] toCounts(Object value) {
+        try {
+            Object array = value instanceof java.sql.Array sqlArray ? sqlArray.getArray() : value;
+            if (array == null || !array.getClass().isArray()) {
+                return new long[0];
+            }
+            long[] counts = new long[Array.getLength(array)];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = ((Number) Array.get(array, i)).longValue();
+            }
+            return counts;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Could not read latency histogram", e);
+        }
+    }
+}
@@ -1,36 +1,72 @@
 package com.observability.repository.clickhouse;
 
+import com.clickhouse.data.ClickHouseWriter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.stereotype.Repository;
 
+import java.nio.ByteBuffer;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 
 /**
  * ClickHouse repository for spans (unified traces + spans + metrics).
- * Metrics are derived from span data using materialized views.
+ * Metrics are derived from span data using materialized views: service and endpoint metrics are
+ * read from minute, hour and day rollups of aggregate states, with raw spans filling in the partial
+ * minutes at either end of the range (see {@link RollupPlan}).
+ * Counts and percentiles are weighted by sample_weight so traces dropped by tail sampling
+ * are still represented by the ones that were kept.
  */
 @Repository
 @Slf4j
 @RequiredArgsConstructor
 public class ClickHouseSpansRepository {
 
+    /**
+     * Metric states of raw spans, computed exactly as the rollup views compute them
+     * (02-create-materialized-views.sql) so both can be merged together
+     */
+    private static final String SPAN_STATES = "sumState(toUInt64(sample_weight)) AS request_count_state, " +
+            "sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))) AS error_count_state, " +
+            "avgWeightedState(duration_ms, sample_weight) AS latency_avg_state, " +
+            "quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight) AS latency_quantiles_state, " +
+            "maxState(duration_ms) AS latency_max_state";
+
+    private static final String ROLLUP_STATES = "request_count_state, error_count_state, latency_avg_state, " +
+            "latency_quantiles_state, latency_max_state";
+
+    private static final String MERGED_COUNTS = "sumMerge(request_count_state) as request_count, " +
+            "sumMerge(error_count_state) as error_count, " +
+            "avgWeightedMerge(latency_avg_state) as avg_latency";
+
+    /**
+     * p50, p95 and p99 of the merged latency digests; the identical merges are computed once
+     */
+    private static final String MERGED_PERCENTILES =
+            "quantilesTDigestWeightedMerge(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state)[1] as p50_latency, " +
+            "quantilesTDigestWeightedMerge(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state)[3] as p95_latency, " +
+            "quantilesTDigestWeightedMerge(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state)[4] as p99_latency";
+
     @Qualifier("clickHouseJdbcTemplate")
     private final JdbcTemplate jdbcTemplate;
 
     /**
-     * Get traces (root spans) with filters
+     * Get traces (root spans) with filters, newest first. Pages after the first are read from the
+     * position of {@code cursor}, ties on start_time broken by trace_id; {@code offset} only
+     * applies without one.
      */
-    public List<Map<String, Object>> getTraces(UUID teamId, Instant start, Instant end,
+    public KeysetPage getTraces(UUID teamId, Instant start, Instant end,
             List<String> services, String status, Long minDuration, Long maxDuration,
-            int limit, int offset) {
+            int limit, int offset, PageCursor cursor) {
 
         StringBuilder sql = new StringBuilder();
         sql.append("SELECT trace_id, service_name, operation_name, start_time, end_time, ");
-        sql.append("duration_ms, status, http_method, http_status_code ");
+        sql.append("duration_ms, status, http_method, http_status_code, ");
+        sql.append("toUnixTimestamp(start_time) AS cursor_time, trace_id AS cursor_key ");
         sql.append("FROM spans WHERE team_id = ? AND is_root = 1 ");
         sql.append("AND start_time >= fromUnixTimestamp64Milli(?) AND start_time <= fromUnixTimestamp64Milli(?) ");
 
@@ -57,11 +93,19 @@ public class ClickHouseSpansRepository {
             params.add(maxDuration);
         }
         
-        sql.append("ORDER BY start_time DESC LIMIT ? OFFSET ?");
-        params.add(limit);
-        params.add(offset);
-        
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+        if (cursor != null) {
+            sql.append("AND start_time <= fromUnixTimestamp(?) ");
+            sql.append("AND (start_time < fromUnixTimestamp(?) OR trace_id < ?) ");
+            params.add(cursor.epochSecond());
+            params.add(cursor.epochSecond());
+            params.add(cursor.tieBreaker());
+        }
+
+        sql.append("ORDER BY start_time DESC, trace_id DESC LIMIT ? OFFSET ?");
+        params.add(limit + 1);
+        params.add(cursor != null ? 0 : offset);
+
+        return KeysetPage.of(jdbcTemplate.queryForList(sql.toString(), params.toArray()), limit);
     }
 
     /**
@@ -70,7 +114,7 @@ public class ClickHouseSpansRepository {
     public List<Map<String, Object>> getSpansByTraceId(UUID teamId, String traceId) {
         String sql = "SELECT span_id, parent_span_id, operation_name, service_name, " +
                 "span_kind, start_time, end_time, duration_ms, status, status_message, " +
-                "http_method, http_url, http_status_code, host, pod, attributes " +
+                "http_method, http_url, http_route, http_status_code, host, pod, attributes " +
                 "FROM spans WHERE team_id = ? AND trace_id = ? " +
                 "ORDER BY start_time ASC";
         
@@ -81,12 +125,12 @@ public class ClickHouseSpansRepository {
      * Get trace summary statistics
      */
     public Map<String, Object> getTraceSummary(UUID teamId, Instant start, Instant end) {
-        String sql = "SELECT count() as total_traces, " +
-                "countIf(status = 'ERROR') as error_traces, " +
-                "avg(duration_ms) as avg_duration, " +
-                "quantile(0.50)(duration_ms) as p50_duration, " +
-                "quantile(0.95)(duration_ms) as p95_duration, " +
-                "quantile(0.99)(duration_ms) as p99_duration " +
+        String sql = "SELECT sum(sample_weight) as total_traces, " +
+                "sumIf(sample_weight, status = 'ERROR') as error_traces, " +
+                "avgWeighted(duration_ms, sample_weight) as avg_duration, " +
+                "quantileTDigestWeighted(0.50)(duration_ms, sample_weight) as p50_duration, " +
+                "quantileTDigestWeighted(0.95)(duration_ms, sample_weight) as p95_duration, " +
+                "quantileTDigestWeighted(0.99)(duration_ms, sample_weight) as p99_duration " +
                 "FROM spans WHERE team_id = ? AND is_root = 1 " +
                 "AND start_time >= fromUnixTimestamp64Milli(?) AND start_time <= fromUnixTimestamp64Milli(?)";
 
@@ -94,57 +138,74 @@ public class ClickHouseSpansRepository {
     }
 
     /**
-     * Get service metrics (derived from spans)
+     * Get service metrics, merged from the service rollups and raw spans at the range edges
      */
     public List<Map<String, Object>> getServiceMetrics(UUID teamId, Instant start, Instant end) {
-        String sql = "SELECT service_name, " +
-                "count() as request_count, " +
-                "countIf(status = 'ERROR') as error_count, " +
-                "avg(duration_ms) as avg_latency, " +
-                "quantile(0.50)(duration_ms) as p50_latency, " +
-                "quantile(0.95)(duration_ms) as p95_latency, " +
-                "quantile(0.99)(duration_ms) as p99_latency " +
-                "FROM spans WHERE team_id = ? AND is_root = 1 " +
-                "AND start_time >= fromUnixTimestamp64Milli(?) AND start_time <= fromUnixTimestamp64Milli(?) " +
+        List<RollupPlan.Segment> segments = RollupPlan.segments(start, end, null);
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT service_name, " + MERGED_COUNTS + ", " + MERGED_PERCENTILES + " " +
+                "FROM (" + rollupSource("service_metrics", "service_name", "service_name", "is_root = 1",
+                        "", List.of(), teamId, segments, params) + ") " +
                 "GROUP BY service_name ORDER BY request_count DESC";
 
-        return jdbcTemplate.queryForList(sql, teamId.toString(), start.toEpochMilli(), end.toEpochMilli());
+        return jdbcTemplate.queryForList(sql, params.toArray());
+    }
+
+    /**
+     * Request, error and latency totals per service for the dashboard overview: the counting part
+     * of {@link #getServiceMetrics} without the digest merges. Root spans are what the trace
+     * summary counts too, so the totals of these rows are the overview's trace counts. ClickHouse
+     * aborts the query once it has run for {@code maxExecutionTime}.
+     */
+    public List<Map<String, Object>> getServiceTotals(UUID teamId, Instant start, Instant end,
+            Duration maxExecutionTime) {
+        List<RollupPlan.Segment> segments = RollupPlan.segments(start, end, null);
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        long seconds = Math.max(1, (maxExecutionTime.toMillis() + 999) / 1000);
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT service_name, " + MERGED_COUNTS + " " +
+                "FROM (" + rollupSource("service_metrics", "service_name", "service_name", "is_root = 1",
+                        "", List.of(), teamId, segments, params) + ") " +
+                "GROUP BY service_name ORDER BY request_count DESC " +
+                "SETTINGS max_execution_time = " + seconds;
+
+        return jdbcTemplate.queryForList(sql, params.toArray());
     }
 
     /**
-     * Get endpoint metrics (derived from spans)
+     * Get endpoint metrics, merged from the endpoint rollups and raw spans at the range edges
      */
     public List<Map<String, Object>> getEndpointMetrics(UUID teamId, Instant start, Instant end,
             String serviceName) {
-        StringBuilder sql = new StringBuilder();
-        sql.append("SELECT service_name, operation_name, http_method, ");
-        sql.append("count() as request_count, ");
-        sql.append("countIf(status = 'ERROR') as error_count, ");
-        sql.append("avg(duration_ms) as avg_latency, ");
-        sql.append("quantile(0.50)(duration_ms) as p50_latency, ");
-        sql.append("quantile(0.95)(duration_ms) as p95_latency, ");
-        sql.append("quantile(0.99)(duration_ms) as p99_latency ");
-        sql.append("FROM spans WHERE team_id = ? AND span_kind = 'SERVER' ");
-        sql.append("AND start_time >= fromUnixTimestamp64Milli(?) AND start_time <= fromUnixTimestamp64Milli(?) ");
-
-        List<Object> params = new ArrayList<>();
-        params.add(teamId.toString());
-        params.add(start.toEpochMilli());
-        params.add(end.toEpochMilli());
-        
+        List<RollupPlan.Segment> segments = RollupPlan.segments(start, end, null);
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        String filter = "";
+        List<Object> filterParams = new ArrayList<>();
         if (serviceName != null) {
-            sql.append("AND service_name = ? ");
-            params.add(serviceName);
+            filter = " AND service_name = ?";
+            filterParams.add(serviceName);
         }
-        
-        sql.append("GROUP BY service_name, operation_name, http_method ");
-        sql.append("ORDER BY request_count DESC LIMIT 100");
-        
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+
+        List<Object> params = new ArrayList<>();
+        String keys = "service_name, operation_name, http_method";
+        String sql = "SELECT " + keys + ", " + MERGED_COUNTS + ", " + MERGED_PERCENTILES + " " +
+                "FROM (" + rollupSource("endpoint_metrics", keys, keys, "span_kind = 'SERVER'",
+                        filter, filterParams, teamId, segments, params) + ") " +
+                "GROUP BY " + keys + " ORDER BY request_count DESC LIMIT 100";
+
+        return jdbcTemplate.queryForList(sql, params.toArray());
     }
 
     /**
-     * Get time-series metrics for a service
+     * Get time-series metrics for a service. Buckets are read from the coarsest rollup that
+     * divides the interval, so 30 days of 1d points read daily rows.
      */
     public List<Map<String, Object>> getMetricsTimeSeries(UUID teamId, Instant start, Instant end,
             String serviceName, String interval) {
@@ -154,28 +215,30 @@ public class ClickHouseSpansRepository {
             case "1d" -> "toStartOfDay";
             default -> "toStartOfMinute";
         };
-
-        StringBuilder sql = new StringBuilder();
-        sql.append("SELECT ").append(intervalFunc).append("(start_time) as timestamp, ");
-        sql.append("count() as request_count, ");
-        sql.append("countIf(status = 'ERROR') as error_count, ");
-        sql.append("avg(duration_ms) as avg_latency ");
-        sql.append("FROM spans WHERE team_id = ? AND is_root = 1 ");
-        sql.append("AND start_time >= fromUnixTimestamp64Milli(?) AND start_time <= fromUnixTimestamp64Milli(?) ");
-
-        List<Object> params = new ArrayList<>();
-        params.add(teamId.toString());
-        params.add(start.toEpochMilli());
-        params.add(end.toEpochMilli());
-        
+        Duration bucket = switch (interval) {
+            case "5m" -> Duration.ofMinutes(5);
+            case "1h" -> Duration.ofHours(1);
+            case "1d" -> Duration.ofDays(1);
+            default -> Duration.ofMinutes(1);
+        };
+        List<RollupPlan.Segment> segments = RollupPlan.segments(start, end, bucket);
+        if (segments.isEmpty()) {
+            return List.of();
+        }
+        String filter = "";
+        List<Object> filterParams = new ArrayList<>();
         if (serviceName != null) {
-            sql.append("AND service_name = ? ");
-            params.add(serviceName);
+            filter = " AND service_name = ?";
+            filterParams.add(serviceName);
         }
-        
-        sql.append("GROUP BY timestamp ORDER BY timestamp ASC");
-        
-        return jdbcTemplate.queryForList(sql.toString(), params.toArray());
+
+        List<Object> params = new ArrayList<>();
+        String sql = "SELECT timestamp, " + MERGED_COUNTS + " " +
+                "FROM (" + rollupSource("service_metrics", intervalFunc + "({time}) as timestamp", "timestamp",
+                        "is_root = 1", filter, filterParams, teamId, segments, params) + ") " +
+                "GROUP BY timestamp ORDER BY timestamp ASC";
+
+        return jdbcTemplate.queryForList(sql, params.toArray());
     }
 
     /**
@@ -183,7 +246,7 @@ public class ClickHouseSpansRepository {
      */
     public List<Map<String, Object>> getServiceDependencies(UUID teamId, Instant start, Instant end) {
         String sql = "SELECT parent.service_name as source, child.service_name as target, " +
-                "count() as call_count " +
+                "sum(child.sample_weight) as call_count " +
                 "FROM spans child " +
                 "INNER JOIN spans parent ON child.parent_span_id = parent.span_id " +
                 "AND child.team_id = parent.team_id AND child.trace_id = parent.trace_id " +
@@ -195,31 +258,88 @@ public class ClickHouseSpansRepository {
     }
 
     /**
-     * Batch insert spans
+     * Union of the segments covering a range, each selecting {@code keys} and the metric states.
+     * {@code {time}} in keys stands for the time column of the segment's table.
+     * @param metrics rollup table prefix, service_metrics or endpoint_metrics
+     * @param spanFilter condition the rollup views apply to spans
+     * @param filter extra condition on key columns, its parameters in {@code filterParams}
      */
-    public void batchInsert(List<Map<String, Object>> spans) {
-        String sql = """
-            INSERT INTO observex.spans
-            (team_id, trace_id, span_id, parent_span_id, is_root, operation_name, service_name,
-             span_kind, start_time, end_time, duration_ms, status, status_message,
-             http_method, http_url, http_status_code, host, pod, container, attributes)
-            VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
-            """;
-
-        List<Object[]> batchArgs = spans.stream()
-            .map(s -> new Object[]{
-                s.get("team_id"), s.get("trace_id"), s.get("span_id"),
-                s.get("parent_span_id"), s.get("is_root"), s.get("operation_name"),
-                s.get("service_name"), s.get("span_kind"), s.get("start_time"),
-                s.get("end_time"), s.get("duration_ms"), s.get("status"),
-                s.get("status_message"), s.get("http_method"), s.get("http_url"),
-                s.get("http_status_code"), s.get("host"), s.get("pod"),
-                s.get("container"), s.get("attributes")
-            })
-            .toList();
-
-        jdbcTemplate.batchUpdate(sql, batchArgs);
+    private String rollupSource(String metrics, String keys, String groupBy, String spanFilter, String filter,
+            List<Object> filterParams, UUID teamId, List<RollupPlan.Segment> segments, List<Object> params) {
+        StringJoiner union = new StringJoiner(" UNION ALL ");
+        for (RollupPlan.Segment segment : segments) {
+            StringBuilder sql = new StringBuilder("SELECT ");
+            if (segment.tier() == null) {
+                sql.append(keys.replace("{time}", "start_time")).append(", ").append(SPAN_STATES);
+                sql.append(" FROM spans WHERE team_id = ? AND ").append(spanFilter);
+                sql.append(" AND start_time >= fromUnixTimestamp64Milli(?) AND start_time ");
+                sql.append(segment.endInclusive() ? "<=" : "<").append(" fromUnixTimestamp64Milli(?)");
+                sql.append(filter).append(" GROUP BY ").append(groupBy);
+            } else {
+                String time = segment.tier().timeColumn;
+                sql.append(keys.replace("{time}", time)).append(", ").append(ROLLUP_STATES);
+                sql.append(" FROM ").append(metrics).append('_').append(segment.tier().suffix);
+                sql.append(" WHERE team_id = ? AND ").append(time).append(" >= fromUnixTimestamp64Milli(?) AND ");
+                sql.append(time).append(" < fromUnixTimestamp64Milli(?)").append(filter);
+            }
+            union.add(sql);
+            params.add(teamId.toString());
+            params.add(segment.startMillis());
+            params.add(segment.endMillis());
+            params.addAll(filterParams);
+        }
+        return union.toString();
+    }
+
+    /**
+     * Batch insert spans, streamed to ClickHouse as compressed RowBinary
+     */
+    public void batchInsert(List<SpanRow> spans) {
+        String sql = "INSERT INTO observex.spans (" + SpanRow.COLUMNS + ") FORMAT RowBinary";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, (ClickHouseWriter) out -> {
+                RowBinaryWriter writer = new RowBinaryWriter(out);
+                for (SpanRow span : spans) {
+                    span.writeRowBinary(writer);
+                }
+                writer.flush();
+            });
+            return ps.executeUpdate();
+        });
         log.debug("Inserted {} spans into ClickHouse", spans.size());
     }
-}
 
+    /**
+     * Insert batches that are already RowBinary encoded (as written to the ingestion WAL)
+     * @param columns column list the batches were encoded with
+     */
+    public void insertRowBinary(String columns, List<ByteBuffer> encodedBatches) {
+        String sql = "INSERT INTO observex.spans (" + columns + ") FORMAT RowBinary";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, (ClickHouseWriter) out -> {
+                RowBinaryWriter writer = new RowBinaryWriter(out);
+                for (ByteBuffer encoded : encodedBatches) {
+                    writer.writeRaw(encoded);
+                }
+                writer.flush();
+            });
+            return ps.executeUpdate();
+        });
+        log.debug("Replayed {} encoded batches into ClickHouse spans", encodedBatches.size());
+    }
+
+    /**
+     * Insert rows written by {@code rows} in JSONEachRow format, as sent by trusted producers.
+     * Columns a row leaves out take their table defaults.
+     */
+    public void insertJsonEachRow(ClickHouseWriter rows) {
+        String sql = "INSERT INTO observex.spans FORMAT JSONEachRow";
+
+        jdbcTemplate.execute(sql, (PreparedStatementCallback<Integer>) ps -> {
+            ps.setObject(1, rows);
+            return ps.executeUpdate();
+        });
+    }
+}
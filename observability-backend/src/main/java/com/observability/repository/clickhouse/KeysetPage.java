@@ -0,0 +1,73 @@
+package com.observability.repository.clickhouse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One page of a keyset-paginated query and the cursor of the next page, null on the last one
+ */
+public record KeysetPage(List<Map<String, Object>> rows, String nextCursor) {
+
+    /**
+     * Columns every keyset query selects alongside its rows: the sort timestamp in epoch seconds
+     * and the tie-breaker, as a string
+     */
+    static final String CURSOR_TIME = "cursor_time";
+    static final String CURSOR_KEY = "cursor_key";
+
+    public boolean hasMore() {
+        return nextCursor != null;
+    }
+
+    /**
+     * Page of a query that fetched up to {@code limit + 1} rows; the extra row only tells that
+     * another page exists. The cursor columns are removed from the rows.
+     */
+    static KeysetPage of(List<Map<String, Object>> fetched, int limit) {
+        return of(fetched, limit, 0);
+    }
+
+    /**
+     * Page of a query whose tie-breaker may repeat: it read the rows at or after {@code previous}
+     * and skipped the {@code previous.duplicates()} of them at exactly that position, which
+     * earlier pages returned. The next cursor counts the rows at its own position returned so far.
+     */
+    static KeysetPage ofNonUnique(List<Map<String, Object>> fetched, int limit, PageCursor previous) {
+        int duplicates = 0;
+        if (fetched.size() > limit && limit > 0) {
+            Map<String, Object> last = fetched.get(limit - 1);
+            long time = cursorTime(last);
+            String key = cursorKey(last);
+            for (int i = limit - 1; i >= 0 && cursorTime(fetched.get(i)) == time && key.equals(cursorKey(fetched.get(i))); i--) {
+                duplicates++;
+            }
+            if (duplicates == limit && previous != null
+                    && previous.epochSecond() == time && previous.tieBreaker().equals(key)) {
+                duplicates += previous.duplicates();
+            }
+        }
+        return of(fetched, limit, duplicates);
+    }
+
+    private static KeysetPage of(List<Map<String, Object>> fetched, int limit, int duplicates) {
+        List<Map<String, Object>> rows = fetched.size() > limit ? fetched.subList(0, limit) : fetched;
+        String nextCursor = null;
+        if (fetched.size() > limit && limit > 0) {
+            Map<String, Object> last = rows.get(limit - 1);
+            nextCursor = new PageCursor(cursorTime(last), cursorKey(last), duplicates).encode();
+        }
+        for (Map<String, Object> row : rows) {
+            row.remove(CURSOR_TIME);
+            row.remove(CURSOR_KEY);
+        }
+        return new KeysetPage(rows, nextCursor);
+    }
+
+    private static long cursorTime(Map<String, Object> row) {
+        return ((Number) row.get(CURSOR_TIME)).longValue();
+    }
+
+    private static String cursorKey(Map<String, Object> row) {
+        return String.valueOf(row.get(CURSOR_KEY));
+    }
+}
@@ -0,0 +1,68 @@
+package com.observability.repository.clickhouse;
+
+/**
+ * Fixed log-scale latency buckets shared by the span metrics aggregator and its queries.
+ * Bucket 0 holds sub-millisecond spans; bucket {@code i >= 1} holds durations in
+ * {@code [2^((i-1)/4), 2^(i/4))} ms, so every bucket is ~19% wide and quantiles read back from
+ * summed buckets are within that error. The last bucket absorbs everything from ~3 minutes up.
+ * Histograms are plain count arrays, so merging is element-wise addition ({@code sumForEach}).
+ */
+public final class LatencyHistogram {
+
+    public static final int BUCKETS = 72;
+
+    private static final double QUARTER_1 = Math.pow(2, 0.25);
+    private static final double QUARTER_2 = Math.pow(2, 0.5);
+    private static final double QUARTER_3 = Math.pow(2, 0.75);
+
+    private LatencyHistogram() {
+    }
+
+    public static int bucketOf(long durationMs) {
+        if (durationMs <= 0) {
+            return 0;
+        }
+        // 1 + floor(4 * log2(d)): the exponent, then which quarter-octave the mantissa falls in
+        int exponent = 63 - Long.numberOfLeadingZeros(durationMs);
+        double mantissa = durationMs / (double) (1L << exponent);
+        int quarter = mantissa >= QUARTER_3 ? 3 : mantissa >= QUARTER_2 ? 2 : mantissa >= QUARTER_1 ? 1 : 0;
+        return Math.min(BUCKETS - 1, 1 + 4 * exponent + quarter);
+    }
+
+    /**
+     * Upper bound of a bucket in milliseconds
+     */
+    public static double upperBoundMs(int bucket) {
+        return bucket == 0 ? 1.0 : Math.pow(2, bucket / 4.0);
+    }
+
+    /**
+     * Estimate a quantile from summed bucket counts, interpolating geometrically within the bucket
+     */
+    public static double quantile(long[] counts, double q) {
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        double rank = q * total;
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            if (seen + counts[i] >= rank) {
+                if (i == 0) {
+                    return 0;
+                }
+                double lower = upperBoundMs(i - 1);
+                double fraction = (rank - seen) / counts[i];
+                return lower * Math.pow(upperBoundMs(i) / lower, fraction);
+            }
+            seen += counts[i];
+        }
+        return upperBoundMs(counts.length - 1);
+    }
+}
@@ -0,0 +1,67 @@
+package com.observability.repository.clickhouse;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A single row of the ClickHouse logs table, as produced by the ingestion decoders.
+ * The timestamp is kept as epoch nanoseconds and converted at insert time.
+ */
+@Data
+@NoArgsConstructor
+public class LogRow {
+
+    /**
+     * Column list matching the order written by {@link #writeRowBinary}
+     */
+    public static final String COLUMNS = "team_id, timestamp, level, service_name, logger, message, "
+            + "trace_id, span_id, host, pod, container, thread, exception, attributes, "
+            + "pattern_id, pattern, pattern_params";
+
+    private UUID teamId;
+    private long timestampNanos;
+    private String level = "INFO";
+    private String serviceName = "";
+    private String logger = "";
+    private String message = "";
+    private String traceId = "";
+    private String spanId = "";
+    private String host = "";
+    private String pod = "";
+    private String container = "";
+    private String thread = "";
+    private String exception = "";
+    private Map<String, String> attributes = Map.of();
+    /** Mined message template (0 / empty when the message matched none) and its variable tokens */
+    private long patternId;
+    private String pattern = "";
+    private List<String> patternParams = List.of();
+
+    /**
+     * Encode this row in RowBinary using the column order of {@link #COLUMNS}
+     */
+    public void writeRowBinary(RowBinaryWriter writer) throws IOException {
+        writer.writeUuid(teamId);
+        writer.writeDateTime(timestampNanos);
+        writer.writeLowCardinality(level);
+        writer.writeLowCardinality(serviceName);
+        writer.writeLowCardinality(logger);
+        writer.writeString(message);
+        writer.writeString(traceId);
+        writer.writeString(spanId);
+        writer.writeLowCardinality(host);
+        writer.writeLowCardinality(pod);
+        writer.writeLowCardinality(container);
+        writer.writeLowCardinality(thread);
+        writer.writeString(exception);
+        writer.writeStringMap(attributes);
+        writer.writeUInt64(patternId);
+        writer.writeLowCardinality(pattern);
+        writer.writeStringArray(patternParams);
+    }
+}
@@ -0,0 +1,72 @@
+package com.observability.repository.clickhouse;
+
+import com.observability.common.exception.ValidationException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+/**
+ * Keyset position of the last row of a page: its timestamp in epoch seconds and a tie-breaker
+ * among rows of the same second. Where the tie-breaker isn't unique, {@code duplicates} counts
+ * the rows at exactly this position already returned. Clients get it as an opaque URL-safe token
+ * and send it back to fetch the rows after it. The token holds
+ * {@code epochSecond:duplicates:tieBreaker}, the free-form tie-breaker last so it may contain ':'.
+ */
+public record PageCursor(long epochSecond, String tieBreaker, int duplicates) {
+
+    public PageCursor(long epochSecond, String tieBreaker) {
+        this(epochSecond, tieBreaker, 0);
+    }
+
+    /**
+     * Cursor of a token, or null for a blank token (first page)
+     */
+    public static PageCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int first = value.indexOf(':');
+            int second = value.indexOf(':', first + 1);
+            if (first < 0 || second < 0) {
+                throw new ValidationException("Invalid page cursor");
+            }
+            int duplicates = Integer.parseInt(value.substring(first + 1, second));
+            if (duplicates < 0) {
+                throw new ValidationException("Invalid page cursor");
+            }
+            return new PageCursor(Long.parseLong(value.substring(0, first)), value.substring(second + 1), duplicates);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ValidationException("Invalid page cursor");
+        }
+    }
+
+    /**
+     * Tie-breaker of a cursor over an unsigned 64-bit key, checked and in decimal
+     */
+    public String unsignedKey() {
+        try {
+            return Long.toUnsignedString(Long.parseUnsignedLong(tieBreaker));
+        } catch (NumberFormatException e) {
+            throw new ValidationException("Invalid page cursor");
+        }
+    }
+
+    /**
+     * Tie-breaker of a cursor over a UUID key, checked
+     */
+    public String uuidKey() {
+        try {
+            return UUID.fromString(tieBreaker).toString();
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException("Invalid page cursor");
+        }
+    }
+
+    public String encode() {
+        String value = epochSecond + ":" + duplicates + ":" + tieBreaker;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+}
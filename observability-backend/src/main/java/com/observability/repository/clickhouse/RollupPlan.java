@@ -0,0 +1,109 @@
+package com.observability.repository.clickhouse;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a time range across the span metric rollup tiers: the aligned bulk of the range is read
+ * from the coarsest usable tier, the partial buckets at either end from the next finer one, and
+ * only the sub-minute edges from raw spans. Every segment yields the same aggregate states, so a
+ * query merges them as if they came from one table and the result is exact for any range.
+ * <p>
+ * Coarser tiers outlive finer ones. Where the finer tiers have already expired, the coarse
+ * segment is widened to whole buckets instead, so old ranges are answered at the resolution still
+ * kept rather than losing their edges. Bucket boundaries are computed in UTC, matching a
+ * ClickHouse server running in UTC.
+ */
+final class RollupPlan {
+
+    /**
+     * TTL of the spans table (01-create-tables.sql)
+     */
+    private static final Duration RAW_RETENTION = Duration.ofDays(7);
+
+    /**
+     * Tiers with their TTLs, as in 02-create-materialized-views.sql
+     */
+    enum Tier {
+        MINUTE("1m", "timestamp_minute", Duration.ofMinutes(1), Duration.ofDays(7)),
+        HOUR("1h", "timestamp_hour", Duration.ofHours(1), Duration.ofDays(90)),
+        DAY("1d", "timestamp_day", Duration.ofDays(1), Duration.ofDays(395));
+
+        final String suffix;
+        final String timeColumn;
+        final long widthMillis;
+        final Duration retention;
+
+        Tier(String suffix, String timeColumn, Duration width, Duration retention) {
+            this.suffix = suffix;
+            this.timeColumn = timeColumn;
+            this.widthMillis = width.toMillis();
+            this.retention = retention;
+        }
+    }
+
+    /**
+     * Part of a range, read from a tier or from raw spans when {@code tier} is null. Rollup
+     * segments are aligned to their tier and end-exclusive; only the last raw segment includes its end.
+     */
+    record Segment(Tier tier, long startMillis, long endMillis, boolean endInclusive) {
+    }
+
+    private RollupPlan() {
+    }
+
+    /**
+     * Segments covering [start, end] in time order
+     * @param bucket width results are grouped by; only tiers evenly dividing it are used.
+     *               Null when results are not grouped by time.
+     */
+    static List<Segment> segments(Instant start, Instant end, Duration bucket) {
+        List<Tier> tiers = new ArrayList<>();
+        for (Tier tier : Tier.values()) {
+            if (bucket == null || bucket.toMillis() % tier.widthMillis == 0) {
+                tiers.add(tier);
+            }
+        }
+        List<Segment> segments = new ArrayList<>();
+        new Splitter(tiers, System.currentTimeMillis(), segments)
+                .split(tiers.size() - 1, start.toEpochMilli(), end.toEpochMilli(), true);
+        return segments;
+    }
+
+    private record Splitter(List<Tier> tiers, long now, List<Segment> segments) {
+
+        void split(int index, long from, long to, boolean inclusive) {
+            if (from > to || (from == to && !inclusive)) {
+                return;
+            }
+            if (index < 0) {
+                segments.add(new Segment(null, from, to, inclusive));
+                return;
+            }
+            Tier tier = tiers.get(index);
+            long width = tier.widthMillis;
+            long floorFrom = Math.floorDiv(from, width) * width;
+            long floorTo = Math.floorDiv(to, width) * width;
+            // Partial buckets go to finer tiers while those still hold them, else the whole bucket is read here
+            long alignedFrom = floorFrom == from || kept(index - 1, from) ? -Math.floorDiv(-from, width) * width : floorFrom;
+            long alignedTo = floorTo == to || kept(index - 1, floorTo) ? floorTo : floorTo + width;
+            if (alignedFrom >= alignedTo) {
+                split(index - 1, from, to, inclusive);
+                return;
+            }
+            split(index - 1, from, alignedFrom, false);
+            segments.add(new Segment(tier, alignedFrom, alignedTo, false));
+            split(index - 1, alignedTo, to, inclusive);
+        }
+
+        /**
+         * Whether the tier below {@code index}, or raw spans below the finest, still holds data at {@code time}
+         */
+        private boolean kept(int index, long time) {
+            Duration retention = index < 0 ? RAW_RETENTION : tiers.get(index).retention;
+            return time >= now - retention.toMillis();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.observability.repository.clickhouse;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Typed encoder for the ClickHouse RowBinary input format.
+ * Values are written little-endian into an internal buffer that is drained to the
+ * underlying stream (normally the driver's compressed request stream) when full,
+ * so encoding a batch allocates nothing per value.
+ */
+public final class RowBinaryWriter {
+
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    private static final int ENCODED_CACHE_SLOTS = 1024;
+    /** Longest value (in chars) whose encoding is cached; at most 3 bytes per char */
+    private static final int MAX_CACHED_CHARS = 85;
+
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int position;
+
+    /** Encoded bytes (length prefix included) of recently written low-cardinality values, by identity */
+    private final String[] cachedValues = new String[ENCODED_CACHE_SLOTS];
+    private final byte[][] cachedEncodings = new byte[ENCODED_CACHE_SLOTS][];
+
+    public RowBinaryWriter(OutputStream out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    public RowBinaryWriter(OutputStream out, int bufferSize) {
+        this.out = out;
+        this.buffer = new byte[bufferSize];
+    }
+
+    public void writeUInt8(int value) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) value;
+    }
+
+    public void writeBoolean(boolean value) throws IOException {
+        writeUInt8(value ? 1 : 0);
+    }
+
+    public void writeUInt16(int value) throws IOException {
+        ensure(2);
+        buffer[position++] = (byte) value;
+        buffer[position++] = (byte) (value >>> 8);
+    }
+
+    public void writeUInt32(long value) throws IOException {
+        ensure(4);
+        buffer[position++] = (byte) value;
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 24);
+    }
+
+    public void writeUInt64(long value) throws IOException {
+        ensure(8);
+        for (int i = 0; i < 8; i++) {
+            buffer[position++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    /**
+     * Unsigned LEB128, used for string lengths and collection sizes
+     */
+    public void writeVarInt(long value) throws IOException {
+        ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * DateTime column: seconds since epoch as UInt32
+     */
+    public void writeDateTime(long epochNanos) throws IOException {
+        writeUInt32(Math.max(0L, Math.floorDiv(epochNanos, 1_000_000_000L)));
+    }
+
+    /**
+     * UUID column: most significant half first, each half little-endian
+     */
+    public void writeUuid(UUID value) throws IOException {
+        writeUInt64(value.getMostSignificantBits());
+        writeUInt64(value.getLeastSignificantBits());
+    }
+
+    /**
+     * String (and LowCardinality(String)) column: varint byte length followed by UTF-8 bytes.
+     * Null is written as the empty string.
+     */
+    public void writeString(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            writeVarInt(0);
+            return;
+        }
+        int length = utf8Length(value);
+        writeVarInt(length);
+        if (length > buffer.length) {
+            flushBuffer();
+            out.write(value.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        ensure(length);
+        encodeUtf8(value);
+    }
+
+    /**
+     * LowCardinality(String) column. Values interned at ingest are the same instance on every row,
+     * so their encoded bytes are cached by reference and copied instead of re-encoded.
+     */
+    public void writeLowCardinality(String value) throws IOException {
+        if (value == null || value.isEmpty()) {
+            writeVarInt(0);
+            return;
+        }
+        int slot = System.identityHashCode(value) & (ENCODED_CACHE_SLOTS - 1);
+        if (cachedValues[slot] == value) {
+            byte[] encoded = cachedEncodings[slot];
+            ensure(encoded.length);
+            System.arraycopy(encoded, 0, buffer, position, encoded.length);
+            position += encoded.length;
+            return;
+        }
+        if (value.length() > MAX_CACHED_CHARS || buffer.length < 10 + MAX_CACHED_CHARS * 3) {
+            writeString(value);
+            return;
+        }
+        // Reserve the worst case up front so the encoding lands contiguously in the buffer
+        ensure(10 + value.length() * 3);
+        int start = position;
+        writeString(value);
+        cachedValues[slot] = value;
+        cachedEncodings[slot] = Arrays.copyOfRange(buffer, start, position);
+    }
+
+    public void writeNullableString(String value) throws IOException {
+        if (value == null) {
+            writeUInt8(1);
+        } else {
+            writeUInt8(0);
+            writeString(value);
+        }
+    }
+
+    /**
+     * Array(String) column: varint element count followed by the strings
+     */
+    public void writeStringArray(List<String> values) throws IOException {
+        if (values == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(values.size());
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    /**
+     * Map(String, String) column: varint entry count followed by key/value pairs
+     */
+    public void writeStringMap(Map<String, String> map) throws IOException {
+        if (map == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            writeString(entry.getKey());
+            writeString(entry.getValue());
+        }
+    }
+
+    /**
+     * Copy already-encoded RowBinary bytes, e.g. a batch replayed from the write-ahead log
+     */
+    public void writeRaw(ByteBuffer encoded) throws IOException {
+        ByteBuffer source = encoded.duplicate();
+        while (source.hasRemaining()) {
+            if (position == buffer.length) {
+                flushBuffer();
+            }
+            int length = Math.min(source.remaining(), buffer.length - position);
+            source.get(buffer, position, length);
+            position += length;
+        }
+    }
+
+    /**
+     * Drain buffered bytes to the underlying stream
+     */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (position + bytes > buffer.length) {
+            flushBuffer();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void encodeUtf8(String value) {
+        byte[] buf = buffer;
+        int pos = position;
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[pos++] = (byte) (0xC0 | (c >> 6));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                buf[pos++] = (byte) '?';
+            } else {
+                buf[pos++] = (byte) (0xE0 | (c >> 12));
+                buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        position = pos;
+    }
+
+    private static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+}
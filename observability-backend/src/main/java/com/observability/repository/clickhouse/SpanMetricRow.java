@@ -0,0 +1,57 @@
+package com.observability.repository.clickhouse;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * One pre-aggregated series-minute of the span_metrics_1m table: RED counters and a latency
+ * histogram for a team, service and dimension set. Several rows may exist for the same series and
+ * minute (one per flush and instance); queries sum them.
+ */
+@Data
+@NoArgsConstructor
+public class SpanMetricRow {
+
+    /**
+     * Column list matching the order written by {@link #writeRowBinary}
+     */
+    public static final String COLUMNS = "team_id, timestamp, service_name, span_kind, is_root, dimensions, "
+            + "span_count, error_count, duration_sum_ms, duration_max_ms, latency_buckets";
+
+    private UUID teamId;
+    private long minuteEpochSeconds;
+    private String serviceName = "";
+    private String spanKind = "";
+    private boolean root;
+    private Map<String, String> dimensions = Map.of();
+    private long spanCount;
+    private long errorCount;
+    private long durationSumMs;
+    private long durationMaxMs;
+    /** Span counts per {@link LatencyHistogram} bucket */
+    private long[] latencyBuckets = new long[LatencyHistogram.BUCKETS];
+
+    /**
+     * Encode this row in RowBinary using the column order of {@link #COLUMNS}
+     */
+    public void writeRowBinary(RowBinaryWriter writer) throws IOException {
+        writer.writeUuid(teamId);
+        writer.writeDateTime(minuteEpochSeconds * 1_000_000_000L);
+        writer.writeLowCardinality(serviceName);
+        writer.writeLowCardinality(spanKind);
+        writer.writeBoolean(root);
+        writer.writeStringMap(dimensions);
+        writer.writeUInt64(spanCount);
+        writer.writeUInt64(errorCount);
+        writer.writeUInt64(durationSumMs);
+        writer.writeUInt64(durationMaxMs);
+        writer.writeVarInt(latencyBuckets.length);
+        for (long count : latencyBuckets) {
+            writer.writeUInt64(count);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.observability.repository.clickhouse;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A single row of the ClickHouse spans table, as produced by the ingestion decoders.
+ * Timestamps are kept as epoch nanoseconds and converted at insert time.
+ */
+@Data
+@NoArgsConstructor
+public class SpanRow {
+
+    /**
+     * Column list matching the order written by {@link #writeRowBinary}
+     */
+    public static final String COLUMNS = "team_id, trace_id, span_id, parent_span_id, is_root, operation_name, "
+            + "service_name, span_kind, start_time, end_time, duration_ms, status, status_message, "
+            + "http_method, http_url, http_status_code, host, pod, container, attributes, sample_weight, http_route";
+
+    private UUID teamId;
+    private String traceId = "";
+    private String spanId = "";
+    private String parentSpanId;
+    private boolean root;
+    private String operationName = "";
+    private String serviceName = "";
+    private String spanKind = "INTERNAL";
+    private long startTimeNanos;
+    private long endTimeNanos;
+    private long durationMs;
+    private String status = "OK";
+    private String statusMessage = "";
+    private String httpMethod = "";
+    private String httpUrl = "";
+    private int httpStatusCode;
+    private String host = "";
+    private String pod = "";
+    private String container = "";
+    private Map<String, String> attributes = Map.of();
+    /** Spans this row represents after tail sampling */
+    private int sampleWeight = 1;
+    /** Templated path of httpUrl, e.g. /users/{id} */
+    private String httpRoute = "";
+
+    /**
+     * Encode this row in RowBinary using the column order of {@link #COLUMNS}
+     */
+    public void writeRowBinary(RowBinaryWriter writer) throws IOException {
+        writer.writeUuid(teamId);
+        writer.writeString(traceId);
+        writer.writeString(spanId);
+        writer.writeNullableString(parentSpanId);
+        writer.writeBoolean(root);
+        writer.writeLowCardinality(operationName);
+        writer.writeLowCardinality(serviceName);
+        writer.writeLowCardinality(spanKind);
+        writer.writeDateTime(startTimeNanos);
+        writer.writeDateTime(endTimeNanos);
+        writer.writeUInt64(durationMs);
+        writer.writeLowCardinality(status);
+        writer.writeString(statusMessage);
+        writer.writeLowCardinality(httpMethod);
+        writer.writeString(httpUrl);
+        writer.writeUInt16(httpStatusCode);
+        writer.writeLowCardinality(host);
+        writer.writeLowCardinality(pod);
+        writer.writeLowCardinality(container);
+        writer.writeStringMap(attributes);
+        writer.writeUInt32(sampleWeight);
+        writer.writeLowCardinality(httpRoute);
+    }
+}
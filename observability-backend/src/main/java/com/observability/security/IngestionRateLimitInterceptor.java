@@ -0,0 +1,48 @@
+package com.observability.security;
+
+import com.observability.common.exception.TooManyRequestsException;
+import com.observability.service.ratelimit.TokenBucketRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-team request rate limit on the ingestion endpoints.
+ * Runs after TenantFilter, so the team is taken from TenantContext.
+ */
+@Component
+@RequiredArgsConstructor
+public class IngestionRateLimitInterceptor implements HandlerInterceptor {
+
+    private final TokenBucketRateLimiter rateLimiter;
+
+    @Value("${rate-limit.ingestion.enabled:true}")
+    private boolean enabled;
+
+    @Value("${rate-limit.ingestion.max-requests:2000}")
+    private int maxRequests;
+
+    @Value("${rate-limit.ingestion.window-seconds:1}")
+    private int windowSeconds;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!enabled || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        Long teamId = TenantContext.getTeamId();
+        long waitNanos = rateLimiter.acquire("ingest:team:" + (teamId != null ? teamId : 1L),
+                maxRequests, windowSeconds);
+        if (waitNanos > 0) {
+            long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999L));
+            throw new TooManyRequestsException("Ingestion rate limit exceeded for this team",
+                    "RATE_LIMITED", retryAfterSeconds);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,257 @@
+package com.observability.security;
+
+import com.github.luben.zstd.ZstdInputStreamNoFinalizer;
+import com.observability.common.exception.ObservabilityException;
+import com.observability.common.exception.ValidationException;
+import com.observability.service.ingestion.IngestionMetrics;
+import com.observability.service.ingestion.IngestionMetrics.CountingInputStream;
+import jakarta.servlet.*;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Filter that transparently decompresses ingestion request bodies sent with a
+ * {@code Content-Encoding} of gzip, zstd or lz4 (LZ4 frame format).
+ * The body is inflated as the decoders read it, so a payload is never held fully inflated in
+ * memory; inflated size is capped to guard against decompression bombs. NDJSON bodies are
+ * decoded line by line and may stream indefinitely, so for them the cap applies to each line
+ * instead of the whole body. Compressed and inflated byte counts are reported per encoding
+ * through {@link IngestionMetrics}.
+ */
+@Component
+@Order(0)
+public class RequestDecompressionFilter implements Filter {
+
+    private static final List<String> INGEST_PATHS = List.of("/api/ingest/", "/v1/traces", "/v1/logs");
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final IngestionMetrics metrics;
+    private final long maxInflatedBytes;
+    private final long maxInflatedLineBytes;
+
+    public RequestDecompressionFilter(IngestionMetrics metrics,
+            @Value("${ingestion.decompression.max-inflated-mb:512}") long maxInflatedMb,
+            @Value("${ingestion.decompression.max-inflated-line-mb:16}") long maxInflatedLineMb) {
+        this.metrics = metrics;
+        this.maxInflatedBytes = maxInflatedMb * 1024 * 1024;
+        this.maxInflatedLineBytes = maxInflatedLineMb * 1024 * 1024;
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        String encoding = httpRequest.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (encoding == null || encoding.isBlank() || "identity".equalsIgnoreCase(encoding.trim())
+                || !isIngestPath(httpRequest)) {
+            chain.doFilter(request, response);
+            return;
+        }
+        chain.doFilter(new DecompressingRequest(httpRequest, encoding.trim().toLowerCase(Locale.ROOT)), response);
+    }
+
+    private static boolean isIngestPath(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String prefix : INGEST_PATHS) {
+            if (path.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Request whose body is the inflated payload, without the Content-Encoding and
+     * Content-Length headers that described the compressed one
+     */
+    private final class DecompressingRequest extends HttpServletRequestWrapper {
+        private final String encoding;
+        private DecompressingInputStream body;
+
+        DecompressingRequest(HttpServletRequest request, String encoding) {
+            super(request);
+            this.encoding = encoding;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (body == null) {
+                CountingInputStream compressed = IngestionMetrics.counting(super.getInputStream());
+                String contentType = getContentType();
+                boolean lines = contentType != null
+                        && contentType.toLowerCase(Locale.ROOT).startsWith(APPLICATION_NDJSON);
+                body = new DecompressingInputStream(encoding, compressed, open(compressed), lines);
+            }
+            return body;
+        }
+
+        @Override
+        public BufferedReader getReader() throws IOException {
+            String charset = getCharacterEncoding();
+            return new BufferedReader(new InputStreamReader(getInputStream(),
+                    charset != null ? Charset.forName(charset) : StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return isHidden(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isHidden(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            List<String> names = Collections.list(super.getHeaderNames());
+            names.removeIf(this::isHidden);
+            return Collections.enumeration(names);
+        }
+
+        private boolean isHidden(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+
+        private InputStream open(InputStream compressed) {
+            try {
+                return switch (encoding) {
+                    case "gzip", "x-gzip" -> new GZIPInputStream(compressed, 8192);
+                    case "zstd" -> new ZstdInputStreamNoFinalizer(compressed);
+                    case "lz4" -> new LZ4FrameInputStream(compressed);
+                    default -> throw new ObservabilityException("Unsupported Content-Encoding '" + encoding
+                            + "', expected gzip, zstd or lz4", HttpStatus.UNSUPPORTED_MEDIA_TYPE,
+                            "UNSUPPORTED_CONTENT_ENCODING");
+                };
+            } catch (IOException e) {
+                throw new ValidationException("Could not decompress " + encoding + " request body: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inflating body stream that enforces the size cap, on the whole body or on each line, and
+     * reports byte counts once, at end of stream or close. Decompression errors surface as
+     * validation errors rather than I/O errors.
+     */
+    private final class DecompressingInputStream extends ServletInputStream {
+        private final String encoding;
+        private final CountingInputStream compressed;
+        private final InputStream inflated;
+        private final boolean lines;
+        private long inflatedBytes;
+        private long lineBytes;
+        private boolean finished;
+        private boolean reported;
+
+        DecompressingInputStream(String encoding, CountingInputStream compressed, InputStream inflated, boolean lines) {
+            this.encoding = encoding;
+            this.compressed = compressed;
+            this.inflated = inflated;
+            this.lines = lines;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = inflated.read(b, off, len);
+            } catch (IOException e) {
+                throw new ValidationException("Could not decompress " + encoding + " request body: " + e.getMessage());
+            }
+            if (n < 0) {
+                finished = true;
+                report();
+                return -1;
+            }
+            inflatedBytes += n;
+            if (lines) {
+                lineBytes = bytesAfterLastNewline(b, off, n, lineBytes);
+                if (lineBytes > maxInflatedLineBytes) {
+                    report();
+                    throw new ObservabilityException("Decompressed line exceeds " + maxInflatedLineBytes + " bytes",
+                            HttpStatus.PAYLOAD_TOO_LARGE, "PAYLOAD_TOO_LARGE");
+                }
+            } else if (inflatedBytes > maxInflatedBytes) {
+                report();
+                throw new ObservabilityException("Decompressed request body exceeds " + maxInflatedBytes + " bytes",
+                        HttpStatus.PAYLOAD_TOO_LARGE, "PAYLOAD_TOO_LARGE");
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            throw new UnsupportedOperationException("Asynchronous reads of compressed bodies are not supported");
+        }
+
+        @Override
+        public void close() throws IOException {
+            report();
+            inflated.close();
+        }
+
+        /**
+         * Length of the current line after reading {@code n} more bytes
+         */
+        private static long bytesAfterLastNewline(byte[] b, int off, int n, long current) {
+            for (int i = off + n - 1; i >= off; i--) {
+                if (b[i] == '\n') {
+                    return off + n - 1 - i;
+                }
+            }
+            return current + n;
+        }
+
+        private void report() {
+            if (!reported) {
+                reported = true;
+                metrics.recordDecompression(encoding, compressed.getCount(), inflatedBytes);
+            }
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.observability.security;
 import lombok.Builder;
 import lombok.Data;
 
+import java.util.function.Supplier;
+
 /**
  * Holds the current tenant context (organization, team, user) for the request.
  * This is populated by the TenantFilter and used throughout the request lifecycle.
@@ -59,5 +61,25 @@ public class TenantContext {
         TenantContext ctx = get();
         return ctx != null ? ctx.userEmail : null;
     }
+
+    /**
+     * Wrap a task to run under the calling thread's context on whichever thread executes it
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> task) {
+        TenantContext captured = get();
+        return () -> {
+            TenantContext previous = get();
+            CONTEXT.set(captured);
+            try {
+                return task.get();
+            } finally {
+                if (previous != null) {
+                    CONTEXT.set(previous);
+                } else {
+                    CONTEXT.remove();
+                }
+            }
+        };
+    }
 }
 
@@ -1,5 +1,6 @@
 package com.observability.service;
 
+import com.observability.service.ratelimit.TokenBucketRateLimiter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
@@ -9,7 +10,6 @@ import java.time.Duration;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Redis caching service for real-time aggregations and frequently accessed data.
@@ -21,6 +21,7 @@ import java.util.concurrent.TimeUnit;
 public class CacheService {
 
     private final RedisTemplate<String, Object> redisTemplate;
+    private final TokenBucketRateLimiter rateLimiter;
 
     // Cache key prefixes
     private static final String METRICS_REALTIME = "metrics:realtime:";
@@ -133,15 +134,10 @@ public class CacheService {
     }
 
     /**
-     * Store rate limiting counter
+     * Check a rate limit against the local token bucket; consumption is reconciled with Redis in the background
      */
     public boolean checkRateLimit(String key, int maxRequests, int windowSeconds) {
-        String rateLimitKey = "ratelimit:" + key;
-        Long count = redisTemplate.opsForValue().increment(rateLimitKey);
-        if (count != null && count == 1) {
-            redisTemplate.expire(rateLimitKey, windowSeconds, TimeUnit.SECONDS);
-        }
-        return count != null && count <= maxRequests;
+        return rateLimiter.tryAcquire(key, maxRequests, windowSeconds);
     }
 }
 
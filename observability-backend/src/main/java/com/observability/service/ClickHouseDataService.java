@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 
@@ -21,6 +22,7 @@ public class ClickHouseDataService {
     private final ClickHouseSpansRepository spansRepository;
     private final ClickHouseLogsRepository logsRepository;
     private final ClickHouseIncidentsRepository incidentsRepository;
+    private final ClickHouseSpanMetricsRepository spanMetricsRepository;
     private final CacheService cacheService;
 
     @Value("${clickhouse.enabled:false}")
@@ -35,6 +37,28 @@ public class ClickHouseDataService {
         return spansRepository.getServiceMetrics(teamId, start, end);
     }
 
+    /**
+     * Get request, error and latency totals per service for the dashboard overview, the one
+     * read of span data the overview makes; ClickHouse aborts it after {@code timeoutMs}
+     */
+    public List<Map<String, Object>> getOverviewServiceTotals(UUID teamId, long startTime, long endTime,
+            long timeoutMs) {
+        Instant start = Instant.ofEpochMilli(startTime);
+        Instant end = Instant.ofEpochMilli(endTime);
+        return spansRepository.getServiceTotals(teamId, start, end, Duration.ofMillis(timeoutMs));
+    }
+
+    /**
+     * Get log counts per level for the dashboard overview, the one scan of logs the overview makes;
+     * ClickHouse aborts it after {@code timeoutMs}
+     */
+    public List<Map<String, Object>> getOverviewLevelCounts(UUID teamId, long startTime, long endTime,
+            long timeoutMs) {
+        Instant start = Instant.ofEpochMilli(startTime);
+        Instant end = Instant.ofEpochMilli(endTime);
+        return logsRepository.getLevelCounts(teamId, start, end, Duration.ofMillis(timeoutMs));
+    }
+
     /**
      * Get endpoint metrics (derived from spans)
      */
@@ -56,38 +80,68 @@ public class ClickHouseDataService {
     }
 
     /**
-     * Get logs with filters and pagination
+     * Get span metrics pre-aggregated at ingestion, grouped by the given dimensions
+     */
+    public List<Map<String, Object>> getSpanMetrics(UUID teamId, long startTime, long endTime,
+            List<String> groupBy, String serviceName, String interval, int limit) {
+        Instant start = Instant.ofEpochMilli(startTime);
+        Instant end = Instant.ofEpochMilli(endTime);
+        return spanMetricsRepository.getSpanMetrics(teamId, start, end, groupBy, serviceName, interval, limit);
+    }
+
+    /**
+     * Get logs with filters and pagination. {@code cursor} is the nextCursor of the previous
+     * page; offset paging is kept for clients that do not send one.
      */
     public Map<String, Object> getLogs(UUID teamId, long startTime, long endTime,
             List<String> levels, List<String> services, String searchQuery,
-            int limit, int offset) {
+            int limit, int offset, String cursor) {
 
         Instant start = Instant.ofEpochMilli(startTime);
         Instant end = Instant.ofEpochMilli(endTime);
+        PageCursor after = PageCursor.decode(cursor);
 
-        List<Map<String, Object>> logs = logsRepository.getLogs(
-            teamId, start, end, levels, services, searchQuery, limit, offset);
+        KeysetPage page = logsRepository.getLogs(
+            teamId, start, end, levels, services, searchQuery, limit, offset, after);
 
         Map<String, Object> result = new HashMap<>();
-        result.put("logs", logs);
-        result.put("hasMore", logs.size() >= limit);
+        result.put("logs", page.rows());
+        result.put("hasMore", page.hasMore());
+        result.put("nextCursor", page.nextCursor());
         result.put("offset", offset);
         result.put("limit", limit);
 
-        if (offset == 0) {
-            long timeRange = endTime - startTime;
-            Optional<Map<String, Object>> cachedFacets = cacheService.getLogFacets(teamId, timeRange);
-            if (cachedFacets.isPresent()) {
-                result.put("facets", cachedFacets.get());
-            } else {
-                Map<String, Object> facets = logsRepository.getLogFacets(teamId, start, end);
-                cacheService.cacheLogFacets(teamId, timeRange, facets);
-                result.put("facets", facets);
-            }
+        if (offset == 0 && after == null) {
+            result.put("facets", getLogFacets(teamId, startTime, endTime));
         }
         return result;
     }
 
+    /**
+     * Get log facets (level and service counts), cached per time range
+     */
+    public Map<String, Object> getLogFacets(UUID teamId, long startTime, long endTime) {
+        long timeRange = endTime - startTime;
+        Optional<Map<String, Object>> cachedFacets = cacheService.getLogFacets(teamId, timeRange);
+        if (cachedFacets.isPresent()) {
+            return cachedFacets.get();
+        }
+        Map<String, Object> facets = logsRepository.getLogFacets(
+            teamId, Instant.ofEpochMilli(startTime), Instant.ofEpochMilli(endTime));
+        cacheService.cacheLogFacets(teamId, timeRange, facets);
+        return facets;
+    }
+
+    /**
+     * Get the most frequent log message templates
+     */
+    public List<Map<String, Object>> getLogPatterns(UUID teamId, long startTime, long endTime,
+            List<String> services, int limit) {
+        Instant start = Instant.ofEpochMilli(startTime);
+        Instant end = Instant.ofEpochMilli(endTime);
+        return logsRepository.getLogPatterns(teamId, start, end, services, limit);
+    }
+
     /**
      * Get log histogram
      */
@@ -99,37 +153,43 @@ public class ClickHouseDataService {
     }
 
     /**
-     * Get traces (root spans) with filters
+     * Get traces (root spans) with filters, paged by cursor like {@link #getLogs}
      */
     public Map<String, Object> getTraces(UUID teamId, long startTime, long endTime,
             List<String> services, String status, Long minDuration, Long maxDuration,
-            int limit, int offset) {
+            int limit, int offset, String cursor) {
 
         Instant start = Instant.ofEpochMilli(startTime);
         Instant end = Instant.ofEpochMilli(endTime);
 
-        List<Map<String, Object>> traces = spansRepository.getTraces(
-            teamId, start, end, services, status, minDuration, maxDuration, limit, offset);
-
-        long timeRange = endTime - startTime;
-        Map<String, Object> summary;
-        Optional<Map<String, Object>> cachedSummary = cacheService.getTraceSummary(teamId, timeRange);
-        if (cachedSummary.isPresent()) {
-            summary = cachedSummary.get();
-        } else {
-            summary = spansRepository.getTraceSummary(teamId, start, end);
-            cacheService.cacheTraceSummary(teamId, timeRange, summary);
-        }
+        KeysetPage page = spansRepository.getTraces(
+            teamId, start, end, services, status, minDuration, maxDuration, limit, offset, PageCursor.decode(cursor));
 
         Map<String, Object> result = new HashMap<>();
-        result.put("traces", traces);
-        result.put("summary", summary);
-        result.put("hasMore", traces.size() >= limit);
+        result.put("traces", page.rows());
+        result.put("summary", getTraceSummary(teamId, startTime, endTime));
+        result.put("hasMore", page.hasMore());
+        result.put("nextCursor", page.nextCursor());
         result.put("offset", offset);
         result.put("limit", limit);
         return result;
     }
 
+    /**
+     * Get trace summary (total and error traces), cached per time range
+     */
+    public Map<String, Object> getTraceSummary(UUID teamId, long startTime, long endTime) {
+        long timeRange = endTime - startTime;
+        Optional<Map<String, Object>> cachedSummary = cacheService.getTraceSummary(teamId, timeRange);
+        if (cachedSummary.isPresent()) {
+            return cachedSummary.get();
+        }
+        Map<String, Object> summary = spansRepository.getTraceSummary(
+            teamId, Instant.ofEpochMilli(startTime), Instant.ofEpochMilli(endTime));
+        cacheService.cacheTraceSummary(teamId, timeRange, summary);
+        return summary;
+    }
+
     /**
      * Get spans for a trace (waterfall view)
      */
@@ -147,17 +207,17 @@ public class ClickHouseDataService {
     }
 
     /**
-     * Get incidents with filters
+     * Get incidents with filters, paged by cursor like {@link #getLogs}
      */
     public Map<String, Object> getIncidents(UUID teamId, long startTime, long endTime,
             List<String> statuses, List<String> severities, List<String> services,
-            int limit, int offset) {
+            int limit, int offset, String cursor) {
 
         Instant start = Instant.ofEpochMilli(startTime);
         Instant end = Instant.ofEpochMilli(endTime);
 
-        List<Map<String, Object>> incidents = incidentsRepository.getIncidents(
-            teamId, start, end, statuses, severities, services, limit, offset);
+        KeysetPage page = incidentsRepository.getIncidents(
+            teamId, start, end, statuses, severities, services, limit, offset, PageCursor.decode(cursor));
 
         Map<String, Object> counts;
         Optional<Map<String, Object>> cachedCounts = cacheService.getAlertCounts(teamId);
@@ -171,9 +231,10 @@ public class ClickHouseDataService {
         }
 
         Map<String, Object> result = new HashMap<>();
-        result.put("incidents", incidents);
+        result.put("incidents", page.rows());
         result.put("counts", counts);
-        result.put("hasMore", incidents.size() >= limit);
+        result.put("hasMore", page.hasMore());
+        result.put("nextCursor", page.nextCursor());
         result.put("offset", offset);
         result.put("limit", limit);
         return result;
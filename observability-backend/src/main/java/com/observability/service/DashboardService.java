@@ -2,7 +2,10 @@ package com.observability.service;
 
 import com.observability.common.exception.ResourceNotFoundException;
 import com.observability.dto.response.*;
+import com.observability.security.TenantContext;
 import com.observability.service.api.DashboardServiceApi;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -10,6 +13,16 @@ import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * Service implementation for dashboard operations.
@@ -25,6 +38,35 @@ public class DashboardService implements DashboardServiceApi {
     @Value("${clickhouse.enabled:false}")
     private boolean clickHouseEnabled;
 
+    @Value("${dashboard.overview.threads:16}")
+    private int overviewThreads;
+
+    @Value("${dashboard.overview.queue-capacity:64}")
+    private int overviewQueueCapacity;
+
+    @Value("${dashboard.overview.query-timeout-ms:3000}")
+    private long overviewQueryTimeoutMs;
+
+    private ExecutorService overviewExecutor;
+
+    @PostConstruct
+    void startOverviewExecutor() {
+        AtomicInteger queryThreads = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(overviewThreads, overviewThreads,
+                60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(overviewQueueCapacity), r -> {
+            Thread thread = new Thread(r, "overview-query-" + queryThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+        overviewExecutor = executor;
+    }
+
+    @PreDestroy
+    void stopOverviewExecutor() {
+        overviewExecutor.shutdownNow();
+    }
+
     @Override
     public DashboardOverviewResponse getOverview(UUID teamId, Instant start, Instant end) {
         if (!clickHouseEnabled) {
@@ -45,6 +87,7 @@ public class DashboardService implements DashboardServiceApi {
                             .recent(Collections.emptyList())
                             .statusCounts(Collections.emptyMap())
                             .build())
+                    .unavailable(Collections.emptyList())
                     .timeRange(DashboardOverviewResponse.TimeRange.builder()
                             .start(start.toEpochMilli())
                             .end(end.toEpochMilli())
@@ -55,24 +98,21 @@ public class DashboardService implements DashboardServiceApi {
         long startMs = start.toEpochMilli();
         long endMs = end.toEpochMilli();
 
-        // Get service metrics from ClickHouse (derived from spans)
-        List<Map<String, Object>> serviceMetrics = clickHouseDataService.getServiceMetrics(teamId, startMs, endMs);
-
-        // Get logs summary
-        Map<String, Object> logsData = clickHouseDataService.getLogs(teamId, startMs, endMs, null, null, null, 10, 0);
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> recentLogs = (List<Map<String, Object>>) logsData.getOrDefault("logs", Collections.emptyList());
+        // One read per table: per-service totals of root spans, which also sum to the trace
+        // counts, and log counts per level. Both run concurrently; a slow or failed one leaves
+        // its sections empty.
+        CompletableFuture<List<Map<String, Object>>> spansQuery = fanOut(
+                () -> clickHouseDataService.getOverviewServiceTotals(teamId, startMs, endMs, overviewQueryTimeoutMs));
+        CompletableFuture<List<Map<String, Object>>> logsQuery = fanOut(
+                () -> clickHouseDataService.getOverviewLevelCounts(teamId, startMs, endMs, overviewQueryTimeoutMs));
 
-        // Get traces summary
-        Map<String, Object> tracesData = clickHouseDataService.getTraces(teamId, startMs, endMs, null, null, null, null, 10, 0);
-        @SuppressWarnings("unchecked")
-        List<Map<String, Object>> recentTraces = (List<Map<String, Object>>) tracesData.getOrDefault("traces", Collections.emptyList());
-        @SuppressWarnings("unchecked")
-        Map<String, Object> traceSummary = (Map<String, Object>) tracesData.getOrDefault("summary", Collections.emptyMap());
+        List<String> unavailable = new ArrayList<>();
+        List<Map<String, Object>> serviceMetrics = await("spans", spansQuery, null, unavailable);
+        List<Map<String, Object>> levels = await("logs", logsQuery, null, unavailable);
 
         // Build metrics summary
         Map<String, Double> metricStats = new HashMap<>();
-        if (!serviceMetrics.isEmpty()) {
+        if (serviceMetrics != null && !serviceMetrics.isEmpty()) {
             double totalLatency = serviceMetrics.stream()
                     .mapToDouble(m -> ((Number) m.getOrDefault("avg_latency", 0)).doubleValue())
                     .average().orElse(0.0);
@@ -84,42 +124,44 @@ public class DashboardService implements DashboardServiceApi {
         }
 
         DashboardOverviewResponse.MetricsSummary metricsSummary = DashboardOverviewResponse.MetricsSummary.builder()
-                .count(serviceMetrics.size())
+                .count(serviceMetrics != null ? serviceMetrics.size() : 0)
                 .recent(Collections.emptyList()) // ClickHouse returns raw maps, not MetricResponse objects
                 .statistics(metricStats)
                 .build();
 
         // Build logs summary
         Map<String, Long> levelCounts = new HashMap<>();
-        if (logsData.containsKey("facets")) {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> facets = (Map<String, Object>) logsData.get("facets");
-            @SuppressWarnings("unchecked")
-            List<Map<String, Object>> levels = (List<Map<String, Object>>) facets.getOrDefault("levels", Collections.emptyList());
+        long totalLogs = 0;
+        if (levels != null) {
             for (Map<String, Object> level : levels) {
                 String levelName = (String) level.get("level");
-                Long count = ((Number) level.get("count")).longValue();
+                long count = ((Number) level.get("count")).longValue();
                 levelCounts.put(levelName, count);
+                totalLogs += count;
             }
         }
 
         DashboardOverviewResponse.LogsSummary logsSummary = DashboardOverviewResponse.LogsSummary.builder()
-                .count(recentLogs.size())
+                .count(totalLogs)
                 .recent(Collections.emptyList()) // ClickHouse returns raw maps
                 .levelCounts(levelCounts)
                 .build();
 
-        // Build traces summary
+        // Build traces summary from the same service totals
         Map<String, Long> statusCounts = new HashMap<>();
-        if (traceSummary.containsKey("error_traces")) {
-            long totalTraces = ((Number) traceSummary.getOrDefault("total_traces", 0)).longValue();
-            long errorTraces = ((Number) traceSummary.getOrDefault("error_traces", 0)).longValue();
+        long totalTraces = 0;
+        if (serviceMetrics != null) {
+            long errorTraces = 0;
+            for (Map<String, Object> service : serviceMetrics) {
+                totalTraces += ((Number) service.getOrDefault("request_count", 0)).longValue();
+                errorTraces += ((Number) service.getOrDefault("error_count", 0)).longValue();
+            }
             statusCounts.put("OK", totalTraces - errorTraces);
             statusCounts.put("ERROR", errorTraces);
         }
 
         DashboardOverviewResponse.TracesSummary tracesSummary = DashboardOverviewResponse.TracesSummary.builder()
-                .count(recentTraces.size())
+                .count(totalTraces)
                 .recent(Collections.emptyList()) // ClickHouse returns raw maps
                 .statusCounts(statusCounts)
                 .build();
@@ -128,6 +170,8 @@ public class DashboardService implements DashboardServiceApi {
                 .metrics(metricsSummary)
                 .logs(logsSummary)
                 .traces(tracesSummary)
+                .partial(!unavailable.isEmpty())
+                .unavailable(unavailable)
                 .timeRange(DashboardOverviewResponse.TimeRange.builder()
                         .start(startMs)
                         .end(endMs)
@@ -177,6 +221,38 @@ public class DashboardService implements DashboardServiceApi {
         return buildServiceResponseFromClickHouse(serviceData.get());
     }
 
+    /**
+     * Run an overview query on the overview executor, under the caller's tenant context and
+     * bounded by the per-query timeout. The timeout only completes the future; the queries pass
+     * the same budget to ClickHouse as max_execution_time so a timed-out leg also frees its thread.
+     * A full queue fails the query rather than blocking.
+     */
+    private <T> CompletableFuture<T> fanOut(Supplier<T> query) {
+        try {
+            return CompletableFuture.supplyAsync(TenantContext.propagate(query), overviewExecutor)
+                    .orTimeout(overviewQueryTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * Result of an overview query, or the fallback with the query recorded as unavailable
+     */
+    private <T> T await(String name, CompletableFuture<T> query, T fallback, List<String> unavailable) {
+        try {
+            return query.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                log.warn("Overview query {} timed out after {} ms", name, overviewQueryTimeoutMs);
+            } else {
+                log.warn("Overview query {} failed: {}", name, String.valueOf(e.getCause()));
+            }
+            unavailable.add(name);
+            return fallback;
+        }
+    }
+
     private ServiceResponse buildServiceResponseFromClickHouse(Map<String, Object> serviceData) {
         String serviceName = (String) serviceData.get("service_name");
         long requestCount = ((Number) serviceData.getOrDefault("request_count", 0)).longValue();
@@ -1,106 +1,677 @@
 package com.observability.service;
 
-import com.observability.dto.request.LogRequest;
-import com.observability.dto.request.SpanRequest;
+import com.clickhouse.data.ClickHouseWriter;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.observability.common.exception.AccessDeniedException;
+import com.observability.common.exception.ObservabilityException;
+import com.observability.common.exception.TooManyRequestsException;
+import com.observability.common.exception.ValidationException;
+import com.observability.config.IngestionAdmissionProperties;
+import com.observability.config.TailSamplingProperties;
 import com.observability.repository.clickhouse.ClickHouseLogsRepository;
 import com.observability.repository.clickhouse.ClickHouseSpansRepository;
+import com.observability.repository.clickhouse.LogRow;
+import com.observability.repository.clickhouse.SpanRow;
+import com.observability.service.ingestion.AdmissionPolicy;
+import com.observability.service.ingestion.AttributeCardinalityGuard;
+import com.observability.service.ingestion.EndpointNormalizer;
+import com.observability.service.ingestion.FieldDictionary;
+import com.observability.service.ingestion.IngestionBuffer;
+import com.observability.service.ingestion.IngestionMetrics;
+import com.observability.service.ingestion.IngestionMetrics.CountingInputStream;
+import com.observability.service.ingestion.IngestionMetrics.Format;
+import com.observability.service.ingestion.JsonEachRowPassthrough;
+import com.observability.service.ingestion.JsonTelemetryDecoder;
+import com.observability.service.ingestion.LogPatternMiner;
+import com.observability.service.ingestion.OtlpDecoder;
+import com.observability.service.ingestion.SpanDeduplicator;
+import com.observability.service.ingestion.SpanMetricsAggregator;
+import com.observability.service.ingestion.TailSampler;
+import com.observability.service.ingestion.TimestampNormalizer;
+import com.observability.service.ingestion.WriteAheadLog;
+import io.opentelemetry.proto.collector.logs.v1.ExportLogsServiceRequest;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
 
 /**
- * Service for ingesting telemetry data (spans, logs) into ClickHouse
+ * Service for ingesting telemetry data (spans, logs) into ClickHouse.
+ * Rows are accepted into per-table write-behind buffers and inserted asynchronously
+ * in large batches, so callers never wait on a ClickHouse insert. With the write-ahead log
+ * enabled, accepted rows are persisted locally first and survive ClickHouse outages and restarts.
+ * Spans already ingested (e.g. collector retries) are dropped, and the rest are counted into
+ * per-minute span metrics and optionally pass through a tail sampler before reaching their buffer. Log messages are matched to mined templates.
+ * Attribute keys whose values explode in cardinality are dropped, hashed or truncated, and
+ * operation names and URL paths are collapsed into endpoint templates. Every stage reports to
+ * Micrometer through {@link IngestionMetrics}. Trusted teams may instead insert JSONEachRow bodies
+ * straight into ClickHouse through {@link JsonEachRowPassthrough}.
  */
 @Service
 @Slf4j
 @RequiredArgsConstructor
 public class TelemetryIngestionService {
 
+    private static final String WAL_COLUMNS_FILE = "columns";
+
     private final ClickHouseSpansRepository spansRepository;
     private final ClickHouseLogsRepository logsRepository;
+    private final OtlpDecoder otlpDecoder;
+    private final JsonTelemetryDecoder jsonDecoder;
+    private final IngestionAdmissionProperties admissionProperties;
+    private final TailSamplingProperties samplingProperties;
+    private final SpanDeduplicator spanDeduplicator;
+    private final FieldDictionary fieldDictionary;
+    private final LogPatternMiner logPatternMiner;
+    private final SpanMetricsAggregator spanMetricsAggregator;
+    private final AttributeCardinalityGuard attributeGuard;
+    private final EndpointNormalizer endpointNormalizer;
+    private final IngestionMetrics ingestionMetrics;
+    private final JsonEachRowPassthrough passthrough;
+
+    @Value("${ingestion.buffer.capacity-rows:500000}")
+    private int bufferCapacityRows;
+
+    @Value("${ingestion.buffer.batch-size:50000}")
+    private int bufferBatchSize;
+
+    @Value("${ingestion.buffer.flush-interval-ms:1000}")
+    private long bufferFlushIntervalMs;
+
+    @Value("${ingestion.stream.chunk-rows:1000}")
+    private int streamChunkRows;
+
+    @Value("${ingestion.batch.dispatch-threads:8}")
+    private int batchDispatchThreads;
+
+    @Value("${ingestion.timestamps.max-future-skew-seconds:300}")
+    private long maxFutureSkewSeconds;
+
+    @Value("${ingestion.timestamps.max-age-hours:168}")
+    private long maxAgeHours;
+
+    @Value("${ingestion.wal.enabled:true}")
+    private boolean walEnabled;
+
+    @Value("${ingestion.wal.dir:./data/ingestion-wal}")
+    private String walDir;
+
+    @Value("${ingestion.wal.segment-mb:64}")
+    private int walSegmentMb;
+
+    @Value("${ingestion.wal.max-mb:8192}")
+    private long walMaxMb;
+
+    private IngestionBuffer<SpanRow> spanBuffer;
+    private IngestionBuffer<LogRow> logBuffer;
+    private WriteAheadLog spanWal;
+    private WriteAheadLog logWal;
+    private TailSampler tailSampler;
+    private TimestampNormalizer timestampNormalizer;
+    private ExecutorService batchDispatcher;
+
+    @PostConstruct
+    void startBuffers() {
+        AdmissionPolicy policy = admissionPolicy();
+        timestampNormalizer = new TimestampNormalizer(maxFutureSkewSeconds, maxAgeHours);
+        Consumer<List<SpanRow>> spanSink = ingestionMetrics.timedInsert("spans", spansRepository::batchInsert);
+        Consumer<List<LogRow>> logSink = ingestionMetrics.timedInsert("logs", logsRepository::batchInsert);
+        if (walEnabled) {
+            spanWal = openWal("spans", SpanRow.COLUMNS, spansRepository::insertRowBinary);
+            logWal = openWal("logs", LogRow.COLUMNS, logsRepository::insertRowBinary);
+            spanBuffer = new IngestionBuffer<>("spans", bufferCapacityRows, bufferBatchSize,
+                    bufferFlushIntervalMs, policy, spanSink, spanWal, SpanRow::writeRowBinary,
+                    ingestionMetrics.timedReplay("spans", payloads -> spansRepository.insertRowBinary(SpanRow.COLUMNS, payloads)));
+            logBuffer = new IngestionBuffer<>("logs", bufferCapacityRows, bufferBatchSize,
+                    bufferFlushIntervalMs, policy, logSink, logWal, LogRow::writeRowBinary,
+                    ingestionMetrics.timedReplay("logs", payloads -> logsRepository.insertRowBinary(LogRow.COLUMNS, payloads)));
+        } else {
+            spanBuffer = new IngestionBuffer<>("spans", bufferCapacityRows, bufferBatchSize,
+                    bufferFlushIntervalMs, policy, spanSink);
+            logBuffer = new IngestionBuffer<>("logs", bufferCapacityRows, bufferBatchSize,
+                    bufferFlushIntervalMs, policy, logSink);
+        }
+        ingestionMetrics.registerBuffer("spans", spanBuffer);
+        ingestionMetrics.registerBuffer("logs", logBuffer);
+        AtomicInteger dispatchThreads = new AtomicInteger();
+        batchDispatcher = Executors.newFixedThreadPool(batchDispatchThreads, r -> {
+            Thread thread = new Thread(r, "ingest-dispatch-" + dispatchThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (samplingProperties.isEnabled()) {
+            tailSampler = new TailSampler(samplingProperties.getDecisionWindowMs(),
+                    samplingProperties.getMaxPendingTraces(), samplingPolicies(),
+                    (teamId, rows) -> enqueue(spanBuffer, teamId, rows),
+                    (teamId, rows) -> {
+                        if (!spanBuffer.put(teamId, rows)) {
+                            log.error("Lost {} sampled spans of team {}: span buffer closed", rows.size(), teamId);
+                        }
+                    });
+        }
+    }
+
+    @PreDestroy
+    void stopBuffers() throws IOException {
+        batchDispatcher.shutdown();
+        if (tailSampler != null) {
+            tailSampler.close();
+        }
+        spanBuffer.close();
+        logBuffer.close();
+        if (spanWal != null) {
+            spanWal.close();
+            logWal.close();
+        }
+    }
 
     /**
-     * Ingest spans (traces) into ClickHouse
+     * Stream-decode a JSON array of spans from the request body, enqueueing rows chunk by chunk.
+     * Chunks decoded before a malformed element are already accepted.
+     * @return number of spans accepted
      */
-    public void ingestSpans(UUID teamId, List<SpanRequest> spans) {
-        if (spans == null || spans.isEmpty()) {
-            log.warn("No spans to ingest for team {}", teamId);
-            return;
+    public int ingestSpans(UUID teamId, InputStream body) throws IOException {
+        try {
+            int count = this.<SpanRow>decodeStream("spans", Format.JSON, teamId, body,
+                    (in, sink) -> jsonDecoder.decodeSpans(teamId, in, streamChunkRows, sink),
+                    rows -> acceptSpans(teamId, rows));
+            log.debug("Accepted {} streamed spans for team {}", count, teamId);
+            return count;
+        } catch (JsonProcessingException e) {
+            ingestionMetrics.recordFailedRequest("spans", "malformed");
+            throw new ValidationException("Malformed span payload: " + e.getOriginalMessage());
+        }
+    }
+
+    /**
+     * Stream-decode a JSON array of logs from the request body, enqueueing rows chunk by chunk.
+     * Chunks decoded before a malformed element are already accepted.
+     * @return number of logs accepted
+     */
+    public int ingestLogs(UUID teamId, InputStream body) throws IOException {
+        try {
+            int count = this.<LogRow>decodeStream("logs", Format.JSON, teamId, body,
+                    (in, sink) -> jsonDecoder.decodeLogs(teamId, in, streamChunkRows, sink),
+                    rows -> acceptLogs(teamId, rows));
+            log.debug("Accepted {} streamed logs for team {}", count, teamId);
+            return count;
+        } catch (JsonProcessingException e) {
+            ingestionMetrics.recordFailedRequest("logs", "malformed");
+            throw new ValidationException("Malformed log payload: " + e.getOriginalMessage());
         }
+    }
 
-        List<Map<String, Object>> spanMaps = spans.stream()
-                .map(span -> convertSpanToMap(teamId, span))
-                .collect(Collectors.toList());
+    /**
+     * Decode newline-delimited spans from a long-lived request body, accepting rows as they
+     * arrive. {@code onAccepted} is called with the size of every accepted chunk.
+     * @return number of spans accepted
+     */
+    public int streamSpans(UUID teamId, InputStream body, IntConsumer onAccepted) throws IOException {
+        try {
+            return this.<SpanRow>decodeStream("spans", Format.NDJSON, teamId, body,
+                    (in, sink) -> jsonDecoder.decodeSpanLines(teamId, in, streamChunkRows, sink),
+                    rows -> {
+                        int accepted = acceptSpans(teamId, rows);
+                        onAccepted.accept(accepted);
+                        return accepted;
+                    });
+        } catch (JsonProcessingException e) {
+            ingestionMetrics.recordFailedRequest("spans", "malformed");
+            throw new ValidationException("Malformed span line: " + e.getOriginalMessage());
+        }
+    }
 
-        spansRepository.batchInsert(spanMaps);
-        log.info("Ingested {} spans for team {}", spans.size(), teamId);
+    /**
+     * Decode newline-delimited logs from a long-lived request body, accepting rows as they
+     * arrive. {@code onAccepted} is called with the size of every accepted chunk.
+     * @return number of logs accepted
+     */
+    public int streamLogs(UUID teamId, InputStream body, IntConsumer onAccepted) throws IOException {
+        try {
+            return this.<LogRow>decodeStream("logs", Format.NDJSON, teamId, body,
+                    (in, sink) -> jsonDecoder.decodeLogLines(teamId, in, streamChunkRows, sink),
+                    rows -> {
+                        int accepted = acceptLogs(teamId, rows);
+                        onAccepted.accept(accepted);
+                        return accepted;
+                    });
+        } catch (JsonProcessingException e) {
+            ingestionMetrics.recordFailedRequest("logs", "malformed");
+            throw new ValidationException("Malformed log line: " + e.getOriginalMessage());
+        }
     }
 
     /**
-     * Ingest logs into ClickHouse
+     * Stream-decode a batch object holding both spans and logs in a single pass. Each signal's
+     * chunks are accepted on the dispatch pool while decoding continues, so the two pipelines run
+     * concurrently with each other and with the parser. Chunks accepted before a malformed element
+     * or a rejected chunk stay accepted.
+     * @return spans and logs accepted
      */
-    public void ingestLogs(UUID teamId, List<LogRequest> logs) {
-        if (logs == null || logs.isEmpty()) {
-            log.warn("No logs to ingest for team {}", teamId);
+    public JsonTelemetryDecoder.BatchCounts ingestBatch(UUID teamId, InputStream body) throws IOException {
+        Dispatch<SpanRow> spans = new Dispatch<>(rows -> acceptSpans(teamId, rows));
+        Dispatch<LogRow> logs = new Dispatch<>(rows -> acceptLogs(teamId, rows));
+        CountingInputStream counted = IngestionMetrics.counting(body);
+        long start = System.nanoTime();
+        try {
+            jsonDecoder.decodeBatch(teamId, counted, streamChunkRows, spans::submit, logs::submit);
+        } catch (JsonProcessingException e) {
+            ingestionMetrics.recordFailedRequest("batch", "malformed");
+            ValidationException failure = new ValidationException("Malformed batch payload: " + e.getOriginalMessage());
+            awaitAfter(failure, spans, logs);
+            throw failure;
+        } catch (IOException | RuntimeException e) {
+            awaitAfter(e, spans, logs);
+            throw e;
+        } finally {
+            ingestionMetrics.recordDecode("batch", Format.JSON, System.nanoTime() - start - spans.waitNanos - logs.waitNanos);
+            ingestionMetrics.recordBytes("batch", teamId, counted.getCount());
+        }
+        awaitAll(spans, logs);
+        JsonTelemetryDecoder.BatchCounts counts = new JsonTelemetryDecoder.BatchCounts(spans.accepted.get(), logs.accepted.get());
+        log.debug("Accepted {} spans and {} logs in batch for team {}", counts.spans(), counts.logs(), teamId);
+        return counts;
+    }
+
+    /**
+     * Insert a trusted team's JSONEachRow spans straight into ClickHouse, bypassing decoding,
+     * buffering and every ingest-time transformation
+     * @return number of spans inserted
+     */
+    public int insertSpansPassthrough(UUID teamId, InputStream body) {
+        return insertPassthrough("spans", SpanRow.COLUMNS, spansRepository::insertJsonEachRow, teamId, body);
+    }
+
+    /**
+     * Insert a trusted team's JSONEachRow logs straight into ClickHouse, bypassing decoding,
+     * buffering and every ingest-time transformation
+     * @return number of logs inserted
+     */
+    public int insertLogsPassthrough(UUID teamId, InputStream body) {
+        return insertPassthrough("logs", LogRow.COLUMNS, logsRepository::insertJsonEachRow, teamId, body);
+    }
+
+    /**
+     * Accept an OTLP trace export request, decoded directly into span rows
+     * @return number of spans accepted
+     */
+    public int ingestOtlpTraces(UUID teamId, ExportTraceServiceRequest request) {
+        long start = System.nanoTime();
+        List<SpanRow> rows = otlpDecoder.decodeTraces(teamId, request);
+        ingestionMetrics.recordDecode("spans", Format.OTLP, System.nanoTime() - start);
+        ingestionMetrics.recordBytes("spans", teamId, request.getSerializedSize());
+        int accepted = acceptSpans(teamId, rows);
+        log.debug("Accepted {} of {} OTLP spans for team {}", accepted, rows.size(), teamId);
+        return accepted;
+    }
+
+    /**
+     * Accept an OTLP logs export request, decoded directly into log rows
+     * @return number of log records accepted
+     */
+    public int ingestOtlpLogs(UUID teamId, ExportLogsServiceRequest request) {
+        long start = System.nanoTime();
+        List<LogRow> rows = otlpDecoder.decodeLogs(teamId, request);
+        ingestionMetrics.recordDecode("logs", Format.OTLP, System.nanoTime() - start);
+        ingestionMetrics.recordBytes("logs", teamId, request.getSerializedSize());
+        int accepted = acceptLogs(teamId, rows);
+        log.debug("Accepted {} of {} OTLP logs for team {}", accepted, rows.size(), teamId);
+        return accepted;
+    }
+
+    /**
+     * Current buffer occupancy per table
+     */
+    public Map<String, Object> getBufferStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("spans", bufferStats(spanBuffer));
+        stats.put("logs", bufferStats(logBuffer));
+        stats.put("timestamps", timestampNormalizer.getStats());
+        stats.put("dedup", spanDeduplicator.getStats());
+        stats.put("logPatterns", logPatternMiner.getStats());
+        stats.put("spanMetrics", spanMetricsAggregator.getStats());
+        stats.put("attributes", attributeGuard.getStats());
+        stats.put("endpoints", endpointNormalizer.getStats());
+        if (tailSampler != null) {
+            stats.put("tailSampling", tailSampler.getStats());
+        }
+        return stats;
+    }
+
+    /**
+     * Distinct values seen per low-cardinality field for a team
+     */
+    public Map<String, Object> getFieldCardinality(UUID teamId) {
+        return fieldDictionary.getCardinality(teamId);
+    }
+
+    /**
+     * Attribute keys of a team with the most distinct values
+     */
+    public Map<String, Object> getAttributeCardinality(UUID teamId, int limit) {
+        return attributeGuard.getTopKeys(teamId, limit);
+    }
+
+    /**
+     * Rows queued for a team in each buffer
+     */
+    public Map<String, Object> getTenantQueueDepth(UUID teamId) {
+        return Map.of(
+                "spans", spanBuffer.getTenantDepth(teamId),
+                "logs", logBuffer.getTenantDepth(teamId)
+        );
+    }
+
+    /**
+     * Run spans through the ingest pipeline
+     * @return number of spans that passed the timestamp checks; duplicates and spans of dropped
+     *         traces count as accepted
+     */
+    private int acceptSpans(UUID teamId, List<SpanRow> rows) {
+        ingestionMetrics.recordRows("spans", teamId, rows.size());
+        List<SpanRow> valid = timestampNormalizer.spans(rows);
+        List<SpanRow> fresh = spanDeduplicator.filter(teamId, valid);
+        if (fresh.isEmpty()) {
+            return valid.size();
+        }
+        try {
+            endpointNormalizer.spans(teamId, fresh);
+            attributeGuard.spans(teamId, fresh);
+            if (tailSampler != null) {
+                tailSampler.offer(teamId, fresh);
+            } else {
+                enqueue(spanBuffer, teamId, fresh);
+            }
+        } catch (RuntimeException e) {
+            spanDeduplicator.release(teamId, fresh);
+            throw e;
+        }
+        spanDeduplicator.remember(teamId, fresh);
+        spanMetricsAggregator.record(teamId, fresh);
+        return valid.size();
+    }
+
+    /**
+     * Run logs through the ingest pipeline
+     * @return number of logs that passed the timestamp checks
+     */
+    private int acceptLogs(UUID teamId, List<LogRow> rows) {
+        ingestionMetrics.recordRows("logs", teamId, rows.size());
+        List<LogRow> valid = timestampNormalizer.logs(rows);
+        if (!valid.isEmpty()) {
+            attributeGuard.logs(teamId, valid);
+            logPatternMiner.mine(teamId, valid);
+            enqueue(logBuffer, teamId, valid);
+        }
+        return valid.size();
+    }
+
+    /**
+     * Decode a request body chunk by chunk; decode time excludes time spent accepting the chunks
+     * @return number of rows accepted, as counted by {@code accept}
+     */
+    private <T> int decodeStream(String signal, Format format, UUID teamId, InputStream body, StreamDecoder<T> decoder,
+            ToIntFunction<List<T>> accept) throws IOException {
+        CountingInputStream counted = IngestionMetrics.counting(body);
+        long[] acceptNanos = new long[1];
+        int[] accepted = new int[1];
+        long start = System.nanoTime();
+        try {
+            decoder.decode(counted, rows -> {
+                long acceptStart = System.nanoTime();
+                try {
+                    accepted[0] += accept.applyAsInt(rows);
+                } finally {
+                    acceptNanos[0] += System.nanoTime() - acceptStart;
+                }
+            });
+            return accepted[0];
+        } finally {
+            ingestionMetrics.recordDecode(signal, format, System.nanoTime() - start - acceptNanos[0]);
+            ingestionMetrics.recordBytes(signal, teamId, counted.getCount());
+        }
+    }
+
+    /**
+     * Pipe a body into a synchronous ClickHouse insert, checking column names and injecting the
+     * team id row by row. Rows ahead of an invalid one may already be stored when the body spans
+     * several ClickHouse insert blocks.
+     */
+    private int insertPassthrough(String signal, String columns, Consumer<ClickHouseWriter> insert,
+            UUID teamId, InputStream body) {
+        if (!passthrough.isTrusted(teamId)) {
+            throw new AccessDeniedException("Passthrough ingestion is not enabled for this team");
+        }
+        CountingInputStream counted = IngestionMetrics.counting(body);
+        int[] rows = new int[1];
+        ValidationException[] invalid = new ValidationException[1];
+        try {
+            ingestionMetrics.<ClickHouseWriter>timedPassthrough(signal, insert).accept(out -> {
+                try {
+                    rows[0] = passthrough.copy(teamId, columns, counted, out);
+                } catch (ValidationException e) {
+                    invalid[0] = e;
+                    throw new IOException(e.getMessage(), e);
+                }
+            });
+        } catch (RuntimeException e) {
+            if (invalid[0] != null) {
+                ingestionMetrics.recordFailedRequest(signal, "malformed");
+                throw invalid[0];
+            }
+            throw e;
+        } finally {
+            ingestionMetrics.recordBytes(signal, teamId, counted.getCount());
+        }
+        ingestionMetrics.recordRows(signal, teamId, rows[0]);
+        log.debug("Inserted {} passthrough {} for team {}", rows[0], signal, teamId);
+        return rows[0];
+    }
+
+    private <T> void enqueue(IngestionBuffer<T> buffer, UUID teamId, List<T> rows) {
+        IngestionBuffer.Admission admission = buffer.offer(teamId, rows);
+        if (admission != IngestionBuffer.Admission.ACCEPTED) {
+            ingestionMetrics.recordRejected(buffer.getName(), admission.name().toLowerCase(), rows.size());
+        }
+        switch (admission) {
+            case ACCEPTED -> { }
+            case TENANT_LIMIT -> throw new TooManyRequestsException(
+                    "Too much telemetry queued for this team, retry later",
+                    "INGESTION_TENANT_LIMIT", buffer.estimateRetryAfterSeconds());
+            case OVERLOADED -> throw new TooManyRequestsException(
+                    "Ingestion is overloaded, retry later",
+                    "INGESTION_OVERLOADED", buffer.estimateRetryAfterSeconds());
+            case UNAVAILABLE -> throw new ObservabilityException("Ingestion buffer is full, retry later",
+                    HttpStatus.SERVICE_UNAVAILABLE, "INGESTION_BUFFER_FULL");
+        }
+    }
+
+    private AdmissionPolicy admissionPolicy() {
+        Map<UUID, Integer> weights = new HashMap<>();
+        admissionProperties.getWeights().forEach((teamId, weight) -> weights.put(convertTeamIdToUuid(teamId), weight));
+        int defaultWeight = admissionProperties.getDefaultWeight();
+        return new AdmissionPolicy(admissionProperties.getTenantMaxRows(), admissionProperties.getHighWatermark(),
+                admissionProperties.getQuantumRows(), tenant -> weights.getOrDefault(tenant, defaultWeight));
+    }
+
+    private Function<UUID, TailSamplingProperties.Policy> samplingPolicies() {
+        Map<UUID, TailSamplingProperties.Policy> teamPolicies = new HashMap<>();
+        samplingProperties.getTeams().forEach((teamId, policy) -> teamPolicies.put(convertTeamIdToUuid(teamId), policy));
+        TailSamplingProperties.Policy defaultPolicy = samplingProperties.getDefaultPolicy();
+        return teamId -> teamPolicies.getOrDefault(teamId, defaultPolicy);
+    }
+
+    private Map<String, Object> bufferStats(IngestionBuffer<?> buffer) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("pendingRows", buffer.getPendingRows());
+        stats.put("capacityRows", buffer.getCapacity());
+        stats.put("flushedRows", buffer.getFlushedRows());
+        stats.put("droppedRows", buffer.getDroppedRows());
+        stats.put("rejectedRows", buffer.getRejectedRows());
+        stats.put("activeTenants", buffer.getTenantDepths().size());
+        stats.put("replaying", buffer.isReplaying());
+        stats.put("replayedRows", buffer.getReplayedRows());
+        stats.put("walBacklogBytes", buffer.getWalBacklogBytes());
+        return stats;
+    }
+
+    /**
+     * Open the table's WAL for the current column list. WAL records are RowBinary in a fixed
+     * column order, so each column list gets its own directory.
+     */
+    private WriteAheadLog openWal(String table, String columns, BiConsumer<String, List<ByteBuffer>> replay) {
+        Path tableDir = Path.of(walDir, table);
+        Path dir = tableDir.resolve(Integer.toHexString(columns.hashCode()));
+        int segmentBytes = walSegmentBytes();
+        try {
+            drainStaleWals(table, tableDir, dir, segmentBytes, replay);
+            WriteAheadLog wal = WriteAheadLog.open(table, dir, segmentBytes, walMaxMb * 1024L * 1024L);
+            Files.writeString(dir.resolve(WAL_COLUMNS_FILE), columns);
+            return wal;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open " + table + " write-ahead log in " + walDir, e);
+        }
+    }
+
+    /**
+     * WAL segment size in bytes; a segment is one memory-mapped buffer, so the configured size
+     * must stay below 2 GiB
+     */
+    private int walSegmentBytes() {
+        long bytes = walSegmentMb * 1024L * 1024L;
+        if (walSegmentMb <= 0 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("ingestion.wal.segment-mb must be between 1 and 2047, got " + walSegmentMb);
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Replay, with their own column lists, WALs left behind by a build with a different row layout
+     */
+    private void drainStaleWals(String table, Path tableDir, Path current, int segmentBytes,
+            BiConsumer<String, List<ByteBuffer>> replay) throws IOException {
+        if (!Files.isDirectory(tableDir)) {
             return;
         }
+        List<Path> stale;
+        try (Stream<Path> dirs = Files.list(tableDir)) {
+            stale = dirs.filter(d -> !d.equals(current) && Files.isRegularFile(d.resolve(WAL_COLUMNS_FILE))).toList();
+        }
+        for (Path dir : stale) {
+            String columns = Files.readString(dir.resolve(WAL_COLUMNS_FILE));
+            try (WriteAheadLog wal = WriteAheadLog.open(table, dir, segmentBytes, Long.MAX_VALUE)) {
+                WriteAheadLog.Records records;
+                while (!(records = wal.read(wal.getCheckpointOffset(), bufferBatchSize)).isEmpty()) {
+                    replay.accept(columns, records.payloads());
+                    wal.checkpoint(records.nextOffset());
+                }
+            } catch (RuntimeException e) {
+                log.warn("Could not replay stale {} write-ahead log {}, retrying on next start: {}",
+                        table, dir, e.getMessage());
+                continue;
+            }
+            FileSystemUtils.deleteRecursively(dir);
+            log.info("Replayed and removed stale {} write-ahead log {}", table, dir);
+        }
+    }
 
-        List<Map<String, Object>> logMaps = logs.stream()
-                .map(log -> convertLogToMap(teamId, log))
-                .collect(Collectors.toList());
-
-        logsRepository.batchInsert(logMaps);
-        log.info("Ingested {} logs for team {}", logs.size(), teamId);
-    }
-
-    private Map<String, Object> convertSpanToMap(UUID teamId, SpanRequest span) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("team_id", teamId.toString());
-        map.put("trace_id", span.getTraceId());
-        map.put("span_id", span.getSpanId());
-        map.put("parent_span_id", span.getParentSpanId());
-        map.put("is_root", span.getIsRoot() != null ? span.getIsRoot() : false);
-        map.put("operation_name", span.getOperationName());
-        map.put("service_name", span.getServiceName());
-        map.put("span_kind", span.getSpanKind() != null ? span.getSpanKind() : "INTERNAL");
-        map.put("start_time", span.getStartTime());
-        map.put("end_time", span.getEndTime());
-        map.put("duration_ms", span.getDurationMs());
-        map.put("status", span.getStatus() != null ? span.getStatus() : "OK");
-        map.put("status_message", span.getStatusMessage());
-        map.put("http_method", span.getHttpMethod());
-        map.put("http_url", span.getHttpUrl());
-        map.put("http_status_code", span.getHttpStatusCode());
-        map.put("host", span.getHost());
-        map.put("pod", span.getPod());
-        map.put("container", span.getContainer());
-        map.put("attributes", span.getAttributes() != null ? span.getAttributes() : Map.of());
-        return map;
-    }
-
-    private Map<String, Object> convertLogToMap(UUID teamId, LogRequest log) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("team_id", teamId.toString());
-        map.put("timestamp", log.getTimestamp());
-        map.put("level", log.getLevel() != null ? log.getLevel() : "INFO");
-        map.put("service_name", log.getServiceName());
-        map.put("logger", log.getLogger());
-        map.put("message", log.getMessage());
-        map.put("trace_id", log.getTraceId());
-        map.put("span_id", log.getSpanId());
-        map.put("host", log.getHost());
-        map.put("pod", log.getPod());
-        map.put("container", log.getContainer());
-        map.put("thread", log.getThread());
-        map.put("exception", log.getException());
-        map.put("attributes", log.getAttributes() != null ? log.getAttributes() : Map.of());
-        return map;
+    private static UUID convertTeamIdToUuid(Long teamId) {
+        return UUID.fromString(String.format("00000000-0000-0000-0000-%012d", teamId));
+    }
+
+    /**
+     * Wait for both signals' last chunks, rethrowing the first failure with any later one suppressed
+     */
+    private static void awaitAll(Dispatch<?> first, Dispatch<?> second) {
+        try {
+            first.await();
+        } catch (RuntimeException e) {
+            awaitAfter(e, second);
+            throw e;
+        }
+        second.await();
     }
-}
 
+    /**
+     * Wait for in-flight chunks once decoding has already failed, keeping that failure as the one
+     * reported and attaching theirs to it as suppressed
+     */
+    private static void awaitAfter(Throwable failure, Dispatch<?>... dispatches) {
+        for (Dispatch<?> dispatch : dispatches) {
+            try {
+                dispatch.await();
+            } catch (RuntimeException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+
+    /**
+     * Hands one signal's chunks to the dispatch pool in order. At most one chunk is in flight, so
+     * the next is decoded while the previous is accepted and memory stays bounded; a failed
+     * chunk surfaces when the next one is submitted.
+     */
+    private final class Dispatch<T> {
+        private final ToIntFunction<List<T>> accept;
+        private final AtomicInteger accepted = new AtomicInteger();
+        private CompletableFuture<Void> inFlight = CompletableFuture.completedFuture(null);
+        private long waitNanos;
+
+        Dispatch(ToIntFunction<List<T>> accept) {
+            this.accept = accept;
+        }
+
+        void submit(List<T> rows) {
+            long start = System.nanoTime();
+            await();
+            waitNanos += System.nanoTime() - start;
+            inFlight = CompletableFuture.runAsync(() -> accepted.addAndGet(accept.applyAsInt(rows)), batchDispatcher);
+        }
+
+        void await() {
+            CompletableFuture<Void> pending = inFlight;
+            inFlight = CompletableFuture.completedFuture(null);
+            try {
+                pending.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface StreamDecoder<T> {
+        int decode(InputStream body, Consumer<List<T>> sink) throws IOException;
+    }
+}
@@ -0,0 +1,23 @@
+package com.observability.service.ingestion;
+
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+
+/**
+ * Admission limits and drain weights applied per tenant by an {@link IngestionBuffer}
+ *
+ * @param tenantMaxRows max rows one tenant may have queued
+ * @param highWatermark fill ratio above which tenants over their fair share are rejected
+ * @param quantumRows rows credited to a weight-1 tenant per deficit round-robin turn
+ * @param weights drain weight per tenant
+ */
+public record AdmissionPolicy(int tenantMaxRows, double highWatermark, int quantumRows,
+        ToIntFunction<UUID> weights) {
+
+    public static final AdmissionPolicy UNLIMITED =
+            new AdmissionPolicy(Integer.MAX_VALUE, 1.0, 1_000, tenant -> 1);
+
+    public int weightOf(UUID tenant) {
+        return Math.max(1, weights.applyAsInt(tenant));
+    }
+}
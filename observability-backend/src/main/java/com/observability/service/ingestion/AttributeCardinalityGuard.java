@@ -0,0 +1,269 @@
+package com.observability.service.ingestion;
+
+import com.observability.repository.clickhouse.LogRow;
+import com.observability.repository.clickhouse.SpanRow;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps span and log attribute maps from blowing up the cardinality of the attributes columns.
+ * <p>
+ * Per team and signal, every attribute key gets a small HyperLogLog sketch of its values. Once a
+ * key's estimated distinct values exceed {@code max-values-per-key} it is flagged runaway, and from
+ * then on its values are rewritten by the configured policy: {@code drop} removes the attribute,
+ * {@code hash} replaces the value with one of {@code hash-buckets} hash buckets, {@code truncate}
+ * keeps only its first {@code truncate-length} characters. The number of tracked keys is bounded;
+ * keys first seen after a team reaches {@code max-keys-per-team}, and overlong keys, are dropped.
+ * Overlong values of healthy keys are truncated.
+ */
+@Component
+@Slf4j
+public class AttributeCardinalityGuard {
+
+    public enum Policy { DROP, HASH, TRUNCATE }
+
+    private static final int PRECISION = 9;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final boolean enabled;
+    private final Policy policy;
+    private final int maxKeysPerTeam;
+    private final long maxValuesPerKey;
+    private final int maxKeyLength;
+    private final int maxValueLength;
+    private final int hashBuckets;
+    private final int truncateLength;
+
+    private final Map<UUID, TeamKeys> spanKeys = new ConcurrentHashMap<>();
+    private final Map<UUID, TeamKeys> logKeys = new ConcurrentHashMap<>();
+
+    public AttributeCardinalityGuard(@Value("${ingestion.attributes.enabled:true}") boolean enabled,
+            @Value("${ingestion.attributes.policy:hash}") String policy,
+            @Value("${ingestion.attributes.max-keys-per-team:1000}") int maxKeysPerTeam,
+            @Value("${ingestion.attributes.max-values-per-key:10000}") long maxValuesPerKey,
+            @Value("${ingestion.attributes.max-key-length:128}") int maxKeyLength,
+            @Value("${ingestion.attributes.max-value-length:4096}") int maxValueLength,
+            @Value("${ingestion.attributes.hash-buckets:256}") int hashBuckets,
+            @Value("${ingestion.attributes.truncate-length:32}") int truncateLength) {
+        this.enabled = enabled;
+        this.policy = Policy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        this.maxKeysPerTeam = maxKeysPerTeam;
+        this.maxValuesPerKey = maxValuesPerKey;
+        this.maxKeyLength = maxKeyLength;
+        this.maxValueLength = maxValueLength;
+        this.hashBuckets = hashBuckets;
+        this.truncateLength = truncateLength;
+    }
+
+    /**
+     * Track and rewrite the attributes of a team's spans in place
+     */
+    public void spans(UUID teamId, List<SpanRow> rows) {
+        if (!enabled) {
+            return;
+        }
+        TeamKeys keys = spanKeys.computeIfAbsent(teamId, id -> new TeamKeys());
+        for (SpanRow row : rows) {
+            row.setAttributes(guard(keys, row.getAttributes()));
+        }
+    }
+
+    /**
+     * Track and rewrite the attributes of a team's logs in place
+     */
+    public void logs(UUID teamId, List<LogRow> rows) {
+        if (!enabled) {
+            return;
+        }
+        TeamKeys keys = logKeys.computeIfAbsent(teamId, id -> new TeamKeys());
+        for (LogRow row : rows) {
+            row.setAttributes(guard(keys, row.getAttributes()));
+        }
+    }
+
+    /**
+     * Attribute keys of one team with the highest estimated cardinality, per signal
+     */
+    public Map<String, Object> getTopKeys(UUID teamId, int limit) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("policy", policy.name().toLowerCase(Locale.ROOT));
+        result.put("maxValuesPerKey", maxValuesPerKey);
+        result.put("maxKeysPerTeam", maxKeysPerTeam);
+        result.put("spans", topKeys(spanKeys.get(teamId), limit));
+        result.put("logs", topKeys(logKeys.get(teamId), limit));
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        long runawayKeys = 0;
+        long rejectedKeys = 0;
+        long rewrittenValues = 0;
+        for (Map<UUID, TeamKeys> signal : List.of(spanKeys, logKeys)) {
+            for (TeamKeys team : signal.values()) {
+                rejectedKeys += team.rejected.get();
+                for (KeyStats stats : team.keys.values()) {
+                    runawayKeys += stats.runaway ? 1 : 0;
+                    rewrittenValues += stats.rewritten.get();
+                }
+            }
+        }
+        return Map.of(
+                "enabled", enabled,
+                "policy", policy.name().toLowerCase(Locale.ROOT),
+                "runawayKeys", runawayKeys,
+                "rejectedKeys", rejectedKeys,
+                "rewrittenValues", rewrittenValues
+        );
+    }
+
+    /**
+     * The attributes to store; the original map when nothing had to change
+     */
+    private Map<String, String> guard(TeamKeys team, Map<String, String> attributes) {
+        if (attributes == null || attributes.isEmpty()) {
+            return attributes;
+        }
+        Map<String, String> guarded = null;
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            String key = entry.getKey();
+            String value = entry.getValue() != null ? entry.getValue() : "";
+            KeyStats stats = key.length() <= maxKeyLength ? team.stats(key) : null;
+            String replacement;
+            if (stats == null) {
+                team.rejected.incrementAndGet();
+                replacement = null;
+            } else {
+                long hash = Hash64.hash(value);
+                if (stats.observe(hash) && stats.estimate > maxValuesPerKey && !stats.runaway) {
+                    stats.runaway = true;
+                    log.warn("Attribute '{}' exceeded {} distinct values, applying policy {}",
+                            key, maxValuesPerKey, policy);
+                }
+                replacement = stats.runaway ? rewrite(value, hash) : truncate(value, maxValueLength);
+                if (replacement != value) {
+                    stats.rewritten.incrementAndGet();
+                }
+            }
+            if (replacement != value && guarded == null) {
+                guarded = new HashMap<>(attributes);
+            }
+            if (guarded != null) {
+                if (replacement == null) {
+                    guarded.remove(key);
+                } else {
+                    guarded.put(key, replacement);
+                }
+            }
+        }
+        return guarded != null ? guarded : attributes;
+    }
+
+    private String rewrite(String value, long hash) {
+        return switch (policy) {
+            case DROP -> null;
+            case HASH -> "#" + Long.toHexString(Long.remainderUnsigned(hash, hashBuckets));
+            case TRUNCATE -> truncate(value, truncateLength);
+        };
+    }
+
+    private static String truncate(String value, int length) {
+        return value.length() > length ? value.substring(0, length) : value;
+    }
+
+    private List<Map<String, Object>> topKeys(TeamKeys team, int limit) {
+        if (team == null) {
+            return List.of();
+        }
+        List<Map.Entry<String, KeyStats>> entries = new ArrayList<>(team.keys.entrySet());
+        entries.sort(Comparator.comparingLong((Map.Entry<String, KeyStats> e) -> e.getValue().estimate).reversed());
+        List<Map<String, Object>> top = new ArrayList<>();
+        for (Map.Entry<String, KeyStats> entry : entries.subList(0, Math.min(limit, entries.size()))) {
+            KeyStats stats = entry.getValue();
+            Map<String, Object> key = new LinkedHashMap<>();
+            key.put("key", entry.getKey());
+            key.put("estimatedDistinctValues", stats.estimate);
+            key.put("occurrences", stats.occurrences.get());
+            key.put("runaway", stats.runaway);
+            key.put("rewrittenValues", stats.rewritten.get());
+            top.add(key);
+        }
+        return top;
+    }
+
+    /**
+     * Tracked keys of one team and signal
+     */
+    private final class TeamKeys {
+        private final Map<String, KeyStats> keys = new ConcurrentHashMap<>();
+        private final AtomicLong rejected = new AtomicLong();
+
+        /**
+         * Stats of a key, or null if it is new and the team already tracks its maximum
+         */
+        KeyStats stats(String key) {
+            KeyStats stats = keys.get(key);
+            if (stats != null || keys.size() >= maxKeysPerTeam) {
+                return stats;
+            }
+            return keys.computeIfAbsent(key, k -> new KeyStats());
+        }
+    }
+
+    /**
+     * HyperLogLog sketch of one key's values (512 registers, ~4.6% standard error) plus counters.
+     * Register updates are unsynchronized; a lost update only delays the estimate until the
+     * register is raised again.
+     */
+    private static final class KeyStats {
+        private final byte[] registers = new byte[REGISTERS];
+        private final AtomicLong occurrences = new AtomicLong();
+        private final AtomicLong rewritten = new AtomicLong();
+        private volatile long estimate;
+        private volatile boolean runaway;
+
+        /**
+         * Add a hashed value
+         * @return whether the estimate changed
+         */
+        boolean observe(long hash) {
+            occurrences.incrementAndGet();
+            int index = (int) (hash >>> (64 - PRECISION));
+            byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+            if (rank <= registers[index]) {
+                return false;
+            }
+            registers[index] = rank;
+            estimate = estimate();
+            return true;
+        }
+
+        private long estimate() {
+            double sum = 0;
+            int zeros = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double raw = alpha * REGISTERS * REGISTERS / sum;
+            if (raw <= 2.5 * REGISTERS && zeros > 0) {
+                return Math.round(REGISTERS * Math.log((double) REGISTERS / zeros));
+            }
+            return Math.round(raw);
+        }
+    }
+}
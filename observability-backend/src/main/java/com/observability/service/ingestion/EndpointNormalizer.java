@@ -0,0 +1,243 @@
+package com.observability.service.ingestion;
+
+import com.observability.config.EndpointTemplateProperties;
+import com.observability.repository.clickhouse.SpanRow;
+import com.observability.service.ingestion.FieldDictionary.Field;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Collapses high-cardinality endpoints into templates at ingestion: {@code operation_name} is
+ * rewritten in place and the path of {@code http_url} is stored as {@code http_route}, so
+ * {@code /users/81723/orders/99} becomes {@code /users/{id}/orders/{id}}.
+ * <p>
+ * A team's own rules are tried first, then the default rules; the first rule that matches rewrites
+ * the value. Otherwise path segments that look like identifiers (numbers, UUIDs, hex hashes, long
+ * mixed alphanumeric tokens) become {@code {id}}, and the rest are learned in a per-team prefix
+ * tree: once a prefix has {@code learn-threshold} distinct literal children, further new segments
+ * under it are treated as identifiers too. Compiled rules are cached per team. Templates are
+ * interned, since they repeat far more than the raw values they replace.
+ */
+@Component
+@RequiredArgsConstructor
+public class EndpointNormalizer {
+
+    private static final String ID = "{id}";
+
+    private final EndpointTemplateProperties properties;
+    private final FieldDictionary dictionary;
+
+    private final Map<UUID, List<CompiledRule>> rules = new ConcurrentHashMap<>();
+    private final Map<UUID, PathTree> trees = new ConcurrentHashMap<>();
+    private final AtomicLong templatedValues = new AtomicLong();
+
+    /**
+     * Template the operation names and fill the HTTP routes of a team's spans in place
+     */
+    public void spans(UUID teamId, List<SpanRow> rows) {
+        if (!properties.isEnabled()) {
+            for (SpanRow row : rows) {
+                row.setOperationName(dictionary.intern(teamId, Field.OPERATION_NAME, row.getOperationName()));
+            }
+            return;
+        }
+        List<CompiledRule> teamRules = rules.computeIfAbsent(teamId, this::compileRules);
+        PathTree tree = trees.computeIfAbsent(teamId, id -> new PathTree());
+        for (SpanRow row : rows) {
+            String operation = template(teamRules, tree, row.getOperationName());
+            row.setOperationName(dictionary.intern(teamId, Field.OPERATION_NAME, operation));
+            String url = row.getHttpUrl();
+            if (url != null && !url.isEmpty()) {
+                row.setHttpRoute(dictionary.intern(teamId, Field.HTTP_ROUTE, template(teamRules, tree, path(url))));
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int nodes = 0;
+        for (PathTree tree : trees.values()) {
+            nodes += tree.nodes.get();
+        }
+        return Map.of(
+                "enabled", properties.isEnabled(),
+                "teams", trees.size(),
+                "learnedNodes", nodes,
+                "templatedValues", templatedValues.get()
+        );
+    }
+
+    /**
+     * The value with rules applied or identifiers collapsed; the value itself when unchanged
+     */
+    private String template(List<CompiledRule> teamRules, PathTree tree, String value) {
+        if (value == null || value.isEmpty()) {
+            return value;
+        }
+        for (CompiledRule rule : teamRules) {
+            Matcher matcher = rule.pattern().matcher(value);
+            if (matcher.find()) {
+                templatedValues.incrementAndGet();
+                return matcher.replaceAll(rule.replacement());
+            }
+        }
+        // Only the path part of names like "GET /users/42" is templated
+        int pathStart = value.charAt(0) == '/' ? 0 : value.indexOf(" /") + 1;
+        if (value.charAt(pathStart) != '/') {
+            return value;
+        }
+        String templated = tree.template(value, pathStart);
+        if (templated != value) {
+            templatedValues.incrementAndGet();
+        }
+        return templated;
+    }
+
+    private List<CompiledRule> compileRules(UUID teamId) {
+        List<CompiledRule> compiled = new ArrayList<>();
+        properties.getTeams().forEach((id, teamRules) -> {
+            if (convertTeamIdToUuid(id).equals(teamId)) {
+                teamRules.forEach(rule -> compiled.add(CompiledRule.of(rule)));
+            }
+        });
+        properties.getRules().forEach(rule -> compiled.add(CompiledRule.of(rule)));
+        return List.copyOf(compiled);
+    }
+
+    /**
+     * Path of a URL, without scheme, authority, query or fragment
+     */
+    static String path(String url) {
+        int start = 0;
+        int scheme = url.indexOf("://");
+        if (scheme >= 0) {
+            start = url.indexOf('/', scheme + 3);
+            if (start < 0) {
+                return "/";
+            }
+        }
+        int end = url.length();
+        for (int i = start; i < end; i++) {
+            char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+            }
+        }
+        return start == 0 && end == url.length() ? url : url.substring(start, end);
+    }
+
+    /**
+     * Whether a path segment is an identifier rather than part of the route
+     */
+    static boolean isIdentifier(String value, int start, int end) {
+        int length = end - start;
+        if (length == 0) {
+            return false;
+        }
+        int digits = 0;
+        int hex = 0;
+        int separators = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if ((c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F')) {
+                hex++;
+            } else if (c == '-' || c == '_') {
+                separators++;
+            } else if (!Character.isLetter(c)) {
+                return false;
+            }
+        }
+        if (digits == length) {
+            return true;
+        }
+        if (length == 36 && value.charAt(start + 8) == '-' && value.charAt(start + 13) == '-'
+                && value.charAt(start + 18) == '-' && value.charAt(start + 23) == '-' && digits + hex == 32) {
+            return true;
+        }
+        if (digits > 0 && length >= 8 && digits + hex == length) {
+            return true;
+        }
+        // Opaque tokens such as base62 ids: long, unbroken and digit-bearing
+        return separators == 0 && digits >= 3 && length >= 16;
+    }
+
+    private static UUID convertTeamIdToUuid(Long teamId) {
+        return UUID.fromString(String.format("00000000-0000-0000-0000-%012d", teamId));
+    }
+
+    private record CompiledRule(Pattern pattern, String replacement) {
+        static CompiledRule of(EndpointTemplateProperties.Rule rule) {
+            return new CompiledRule(Pattern.compile(rule.getPattern()), rule.getReplacement());
+        }
+    }
+
+    /**
+     * Learned path segments of one team. Lock-free; concurrent learners may overshoot the
+     * thresholds by a few nodes.
+     */
+    private final class PathTree {
+        private final Node root = new Node();
+        private final AtomicInteger nodes = new AtomicInteger();
+
+        String template(String value, int pathStart) {
+            StringBuilder templated = null;
+            Node node = root;
+            int segmentStart = pathStart + 1;
+            while (segmentStart <= value.length()) {
+                int segmentEnd = value.indexOf('/', segmentStart);
+                if (segmentEnd < 0) {
+                    segmentEnd = value.length();
+                }
+                String segment = value.substring(segmentStart, segmentEnd);
+                boolean identifier = isIdentifier(value, segmentStart, segmentEnd) || !learn(node, segment);
+                if (identifier && templated == null) {
+                    templated = new StringBuilder(value.length()).append(value, 0, segmentStart);
+                }
+                if (templated != null) {
+                    templated.append(identifier ? ID : segment);
+                    if (segmentEnd < value.length()) {
+                        templated.append('/');
+                    }
+                }
+                node = identifier ? node.children.computeIfAbsent(ID, k -> new Node()) : node.children.get(segment);
+                segmentStart = segmentEnd + 1;
+            }
+            return templated != null ? templated.toString() : value;
+        }
+
+        /**
+         * Whether the segment is (now) a known literal child of the node
+         */
+        private boolean learn(Node node, String segment) {
+            if (node.children.containsKey(segment)) {
+                return true;
+            }
+            if (node.literals.get() >= properties.getLearnThreshold()
+                    || nodes.get() >= properties.getMaxNodesPerTeam()) {
+                return false;
+            }
+            if (node.children.putIfAbsent(segment, new Node()) == null) {
+                node.literals.incrementAndGet();
+                nodes.incrementAndGet();
+            }
+            return true;
+        }
+
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final AtomicInteger literals = new AtomicInteger();
+    }
+}
@@ -0,0 +1,210 @@
+package com.observability.service.ingestion;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-team dictionaries that intern the values of low-cardinality fields (service, operation,
+ * host, level, ...) while requests are decoded.
+ * <p>
+ * Every row of a team then shares one String instance per distinct value, so buffered rows
+ * don't each retain a copy and {@link com.observability.repository.clickhouse.RowBinaryWriter}
+ * can reuse the encoded bytes by reference. Values decoded from JSON are looked up straight from
+ * the parser's character buffer, so a known value costs no allocation at all. Each dictionary
+ * holds a bounded number of values; once a field is full, further new values pass through
+ * un-interned. Dictionary sizes double as cheap per-field cardinality stats.
+ */
+@Component
+public class FieldDictionary {
+
+    public enum Field {
+        SERVICE_NAME, OPERATION_NAME, SPAN_KIND, STATUS, HTTP_METHOD, HTTP_ROUTE, HOST, POD, CONTAINER, LEVEL, LOGGER, THREAD
+    }
+
+    private static final Field[] FIELDS = Field.values();
+
+    private final int maxValuesPerField;
+    private final Map<UUID, InternTable[]> teams = new ConcurrentHashMap<>();
+
+    public FieldDictionary(@Value("${ingestion.intern.max-values-per-field:10000}") int maxValuesPerField) {
+        this.maxValuesPerField = maxValuesPerField;
+    }
+
+    /**
+     * Canonical instance of a value, or the value itself if the field's dictionary is full
+     */
+    public String intern(UUID teamId, Field field, String value) {
+        if (value == null || value.isEmpty()) {
+            return value;
+        }
+        return tables(teamId)[field.ordinal()].intern(value);
+    }
+
+    /**
+     * Canonical instance of the value held in {@code chars[offset, offset + length)};
+     * a String is only created for a value not seen before
+     */
+    public String intern(UUID teamId, Field field, char[] chars, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        return tables(teamId)[field.ordinal()].intern(chars, offset, length);
+    }
+
+    /**
+     * Distinct values per field for one team
+     */
+    public Map<String, Object> getCardinality(UUID teamId) {
+        InternTable[] tables = teams.get(teamId);
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Field field : FIELDS) {
+            InternTable table = tables != null ? tables[field.ordinal()] : null;
+            stats.put(field.name().toLowerCase(), Map.of(
+                    "distinct", table != null ? table.size() : 0,
+                    "saturated", table != null && table.size() >= maxValuesPerField
+            ));
+        }
+        return stats;
+    }
+
+    public int getTeamCount() {
+        return teams.size();
+    }
+
+    private InternTable[] tables(UUID teamId) {
+        InternTable[] tables = teams.get(teamId);
+        if (tables == null) {
+            tables = teams.computeIfAbsent(teamId, id -> {
+                InternTable[] created = new InternTable[FIELDS.length];
+                for (int i = 0; i < created.length; i++) {
+                    created[i] = new InternTable(maxValuesPerField);
+                }
+                return created;
+            });
+        }
+        return tables;
+    }
+
+    /**
+     * Insert-only open-addressing hash set of strings that grows as values arrive. Lookups are
+     * lock-free on the current array; inserts (new values only) are synchronized. Slots are keyed
+     * on the String.hashCode polynomial, so String keys hash for free and char ranges hash identically.
+     */
+    private static final class InternTable {
+        private static final int INITIAL_CAPACITY = 16;
+
+        private final int maxSize;
+        private volatile AtomicReferenceArray<String> slots = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+        private volatile int size;
+
+        InternTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        String intern(String value) {
+            int hash = value.hashCode();
+            AtomicReferenceArray<String> table = slots;
+            int mask = table.length() - 1;
+            for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+                String existing = table.get(index);
+                if (existing == null) {
+                    return insert(value, hash);
+                }
+                if (existing.hashCode() == hash && existing.equals(value)) {
+                    return existing;
+                }
+            }
+        }
+
+        String intern(char[] chars, int offset, int length) {
+            int hash = 0;
+            for (int i = offset; i < offset + length; i++) {
+                hash = 31 * hash + chars[i];
+            }
+            AtomicReferenceArray<String> table = slots;
+            int mask = table.length() - 1;
+            for (int index = spread(hash) & mask; ; index = (index + 1) & mask) {
+                String existing = table.get(index);
+                if (existing == null) {
+                    return insert(new String(chars, offset, length), hash);
+                }
+                if (existing.hashCode() == hash && matches(existing, chars, offset, length)) {
+                    return existing;
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Add a value missed by a lock-free lookup
+         * @return the canonical instance, or the value itself if the table is full
+         */
+        private synchronized String insert(String value, int hash) {
+            AtomicReferenceArray<String> table = slots;
+            int mask = table.length() - 1;
+            int index = spread(hash) & mask;
+            for (String existing; (existing = table.get(index)) != null; index = (index + 1) & mask) {
+                if (existing.equals(value)) {
+                    return existing;
+                }
+            }
+            if (size >= maxSize) {
+                return value;
+            }
+            if ((size + 1) * 2 > table.length()) {
+                table = grow(table);
+                mask = table.length() - 1;
+                index = spread(hash) & mask;
+                while (table.get(index) != null) {
+                    index = (index + 1) & mask;
+                }
+            }
+            table.set(index, value);
+            size++;
+            return value;
+        }
+
+        private AtomicReferenceArray<String> grow(AtomicReferenceArray<String> table) {
+            AtomicReferenceArray<String> grown = new AtomicReferenceArray<>(table.length() * 2);
+            int mask = grown.length() - 1;
+            for (int i = 0; i < table.length(); i++) {
+                String value = table.get(i);
+                if (value != null) {
+                    int index = spread(value.hashCode()) & mask;
+                    while (grown.get(index) != null) {
+                        index = (index + 1) & mask;
+                    }
+                    grown.set(index, value);
+                }
+            }
+            slots = grown;
+            return grown;
+        }
+
+        private static boolean matches(String value, char[] chars, int offset, int length) {
+            if (value.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (value.charAt(i) != chars[offset + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            int h = hash * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
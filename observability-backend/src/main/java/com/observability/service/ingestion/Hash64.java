@@ -0,0 +1,65 @@
+package com.observability.service.ingestion;
+
+/**
+ * Allocation-free 64-bit hashing for ingestion hot paths (dedup filters, sketches).
+ * Strings are hashed char by char with a multiply-xorshift mix, so no byte[] is produced.
+ */
+public final class Hash64 {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long M = 0xC6A4A7935BD1E995L;
+
+    private Hash64() {
+    }
+
+    public static long hash(CharSequence value) {
+        return update(SEED, value);
+    }
+
+    /**
+     * Fold a string into a running hash
+     */
+    public static long update(long hash, CharSequence value) {
+        long h = hash ^ (value.length() * M);
+        int length = value.length();
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            long k = value.charAt(i)
+                    | ((long) value.charAt(i + 1) << 16)
+                    | ((long) value.charAt(i + 2) << 32)
+                    | ((long) value.charAt(i + 3) << 48);
+            h = (h ^ mix(k)) * M;
+        }
+        long tail = 0;
+        for (int shift = 0; i < length; i++, shift += 16) {
+            tail |= (long) value.charAt(i) << shift;
+        }
+        h = (h ^ mix(tail)) * M;
+        return fmix(h);
+    }
+
+    /**
+     * Fold a long into a running hash
+     */
+    public static long update(long hash, long value) {
+        return fmix((hash ^ mix(value)) * M);
+    }
+
+    private static long mix(long k) {
+        k *= M;
+        k ^= k >>> 47;
+        return k * M;
+    }
+
+    /**
+     * MurmurHash3 64-bit finalizer
+     */
+    private static long fmix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
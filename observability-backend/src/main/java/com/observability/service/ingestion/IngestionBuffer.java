@@ -0,0 +1,594 @@
+package com.observability.service.ingestion;
+
+import com.observability.repository.clickhouse.RowBinaryWriter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Bounded in-memory write-behind buffer for a single ClickHouse table.
+ * Rows from all requests are coalesced and handed to the sink in large batches,
+ * flushed as soon as either the batch size or the max age is reached.
+ * <p>
+ * Rows are queued per tenant and batches are assembled by deficit round-robin, so each
+ * tenant drains in proportion to its weight however much another tenant has queued.
+ * Admission is checked per tenant: a tenant over its own queue limit, or over its fair
+ * share once the buffer passes the high watermark, is rejected up front.
+ * <p>
+ * When backed by a {@link WriteAheadLog}, every accepted chunk is appended and fsynced before
+ * {@link #offer} returns. If an insert fails or memory fills up, the buffer switches to replay
+ * mode: in-memory rows are discarded (they are already on disk) and the flusher drains the log
+ * from its checkpoint, retrying with backoff, until it catches up with the producers.
+ *
+ * @param <T> Row type accepted by the sink
+ */
+@Slf4j
+public class IngestionBuffer<T> implements AutoCloseable {
+
+    private static final long MAX_RETRY_BACKOFF_MS = 30_000;
+    private static final long MAX_RETRY_AFTER_SECONDS = 60;
+
+    private final String name;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final AdmissionPolicy policy;
+    private final Consumer<List<T>> sink;
+
+    private final WriteAheadLog wal;
+    private final RowEncoder<T> encoder;
+    private final Consumer<List<ByteBuffer>> replaySink;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchReady = lock.newCondition();
+    private final Map<UUID, TenantQueue<T>> tenants = new HashMap<>();
+    private final ArrayDeque<TenantQueue<T>> activeTenants = new ArrayDeque<>();
+    private final TreeSet<Long> unflushedWalOffsets = new TreeSet<>();
+    private long lastQueuedWalOffset;
+    private int pendingRows;
+    private boolean replaying;
+    private volatile boolean running = true;
+
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+    private final AtomicLong replayedRows = new AtomicLong();
+    private final AtomicLong rejectedRows = new AtomicLong();
+    private final Thread flusher;
+
+    public IngestionBuffer(String name, int capacity, int batchSize, long flushIntervalMs,
+            AdmissionPolicy policy, Consumer<List<T>> sink) {
+        this(name, capacity, batchSize, flushIntervalMs, policy, sink, null, null, null);
+    }
+
+    /**
+     * Buffer backed by a write-ahead log
+     * @param encoder encodes rows into WAL records
+     * @param replaySink inserts RowBinary records read back from the WAL
+     */
+    public IngestionBuffer(String name, int capacity, int batchSize, long flushIntervalMs,
+            AdmissionPolicy policy, Consumer<List<T>> sink, WriteAheadLog wal, RowEncoder<T> encoder,
+            Consumer<List<ByteBuffer>> replaySink) {
+        this.name = name;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.policy = policy;
+        this.sink = sink;
+        this.wal = wal;
+        this.encoder = encoder;
+        this.replaySink = replaySink;
+        this.replaying = wal != null && wal.getBacklogBytes() > 0;
+        this.flusher = new Thread(this::runFlusher, "ingest-flusher-" + name);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Enqueue a tenant's rows for a later flush. With a WAL, returns only once the rows are durable.
+     */
+    public Admission offer(UUID tenant, List<T> rows) {
+        return offer(tenant, rows, true);
+    }
+
+    /**
+     * Enqueue rows that were already acknowledged to their producer, such as spans released by the
+     * tail sampler. Admission is skipped, so the rows may take the buffer past its fair shares and,
+     * without a WAL, past its capacity; while the WAL is full this blocks until it drains.
+     * @return false only if the buffer was closed (or the thread interrupted) first
+     */
+    public boolean put(UUID tenant, List<T> rows) {
+        long backoffMs = 10;
+        while (offer(tenant, rows, false) != Admission.ACCEPTED) {
+            if (!running) {
+                return false;
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            backoffMs = Math.min(backoffMs * 2, 1_000);
+        }
+        return true;
+    }
+
+    private Admission offer(UUID tenant, List<T> rows, boolean checkAdmission) {
+        if (rows.isEmpty()) {
+            return Admission.ACCEPTED;
+        }
+        EncodedRows encoded = wal != null ? encode(rows) : null;
+        long walOffset = 0;
+        lock.lock();
+        try {
+            if (!running) {
+                return Admission.UNAVAILABLE;
+            }
+            TenantQueue<T> queue = tenants.get(tenant);
+            if (checkAdmission && !replaying) {
+                Admission admission = admit(queue, rows.size());
+                if (admission != Admission.ACCEPTED) {
+                    rejectedRows.addAndGet(rows.size());
+                    return admission;
+                }
+            }
+            long walStart = 0;
+            if (wal != null) {
+                walStart = wal.getEndOffset();
+                walOffset = wal.append(encoded.bytes(), encoded.size(), rows.size());
+                if (walOffset < 0) {
+                    if (checkAdmission) {
+                        rejectedRows.addAndGet(rows.size());
+                    }
+                    return Admission.UNAVAILABLE;
+                }
+                if (!replaying && pendingRows + rows.size() > capacity) {
+                    log.warn("{} buffer is full, spilling to the write-ahead log", name);
+                    enterReplay();
+                }
+                if (replaying) {
+                    return Admission.ACCEPTED;
+                }
+                unflushedWalOffsets.add(walStart);
+                lastQueuedWalOffset = walOffset;
+            }
+            if (queue == null) {
+                queue = new TenantQueue<>(tenant, policy.weightOf(tenant));
+                tenants.put(tenant, queue);
+            }
+            if (queue.chunks.isEmpty()) {
+                activeTenants.addLast(queue);
+            }
+            queue.chunks.addLast(new Chunk<>(rows, System.nanoTime(), walStart));
+            queue.rows += rows.size();
+            pendingRows += rows.size();
+            if (pendingRows >= batchSize || pendingRows == rows.size()) {
+                batchReady.signal();
+            }
+            return Admission.ACCEPTED;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to append to " + name + " write-ahead log", e);
+        } finally {
+            lock.unlock();
+            if (walOffset > 0) {
+                awaitDurable(walOffset);
+            }
+        }
+    }
+
+    /**
+     * Rough time until the current backlog has drained, for Retry-After hints
+     */
+    public long estimateRetryAfterSeconds() {
+        int pending = getPendingRows();
+        long batches = Math.max(1, (pending + batchSize - 1) / batchSize);
+        long seconds = (batches * flushIntervalNanos + 999_999_999L) / 1_000_000_000L;
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+
+    public int getPendingRows() {
+        lock.lock();
+        try {
+            return pendingRows;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rows currently queued for one tenant
+     */
+    public int getTenantDepth(UUID tenant) {
+        lock.lock();
+        try {
+            TenantQueue<T> queue = tenants.get(tenant);
+            return queue != null ? queue.rows : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rows currently queued per tenant
+     */
+    public Map<UUID, Integer> getTenantDepths() {
+        lock.lock();
+        try {
+            Map<UUID, Integer> depths = new HashMap<>();
+            for (TenantQueue<T> queue : tenants.values()) {
+                depths.put(queue.tenant, queue.rows);
+            }
+            return depths;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getFlushedRows() {
+        return flushedRows.get();
+    }
+
+    public long getDroppedRows() {
+        return droppedRows.get();
+    }
+
+    public long getRejectedRows() {
+        return rejectedRows.get();
+    }
+
+    public long getReplayedRows() {
+        return replayedRows.get();
+    }
+
+    public boolean isReplaying() {
+        lock.lock();
+        try {
+            return replaying;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWalBacklogBytes() {
+        return wal != null ? wal.getBacklogBytes() : 0L;
+    }
+
+    /**
+     * Stop accepting rows and flush everything still pending.
+     * Rows that cannot be delivered stay in the WAL for the next start.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            running = false;
+            batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Admission check for a tenant's chunk. Caller holds the lock.
+     */
+    private Admission admit(TenantQueue<T> queue, int rows) {
+        int tenantRows = queue != null ? queue.rows : 0;
+        if (tenantRows + rows > policy.tenantMaxRows()) {
+            return Admission.TENANT_LIMIT;
+        }
+        long highWatermarkRows = (long) (capacity * policy.highWatermark());
+        if (pendingRows + rows > highWatermarkRows) {
+            int contenders = activeTenants.size() + (tenantRows == 0 ? 1 : 0);
+            if (tenantRows + rows > highWatermarkRows / Math.max(1, contenders)) {
+                return Admission.OVERLOADED;
+            }
+        }
+        if (wal == null && pendingRows + rows > capacity) {
+            return Admission.OVERLOADED;
+        }
+        return Admission.ACCEPTED;
+    }
+
+    private void runFlusher() {
+        long backoffMs = 0;
+        while (true) {
+            if (isReplaying()) {
+                if (replayFromWal()) {
+                    backoffMs = 0;
+                    continue;
+                }
+                if (!running) {
+                    return;
+                }
+                backoffMs = Math.min(MAX_RETRY_BACKOFF_MS, Math.max(flushIntervalNanos / 1_000_000L, backoffMs * 2));
+                if (!pause(backoffMs)) {
+                    return;
+                }
+                continue;
+            }
+            Batch<T> batch;
+            try {
+                batch = awaitBatch();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (batch == null) {
+                return;
+            }
+            flush(batch);
+        }
+    }
+
+    /**
+     * Block until a full batch is pending or the oldest chunk has reached the flush interval.
+     * Returns null once the buffer is closed and fully drained.
+     */
+    private Batch<T> awaitBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (running && !replaying && pendingRows < batchSize) {
+                if (activeTenants.isEmpty()) {
+                    batchReady.await();
+                    continue;
+                }
+                long waitNanos = oldestEnqueuedAt() + flushIntervalNanos - System.nanoTime();
+                if (waitNanos <= 0) {
+                    break;
+                }
+                batchReady.awaitNanos(waitNanos);
+            }
+            if (activeTenants.isEmpty()) {
+                return running || replaying ? new Batch<>(new ArrayList<>(), List.of()) : null;
+            }
+            return drainFairly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Assemble one batch by deficit round-robin across tenants with queued rows. Caller holds the lock.
+     */
+    private Batch<T> drainFairly() {
+        List<T> rows = new ArrayList<>(Math.min(pendingRows, batchSize));
+        List<Long> walOffsets = new ArrayList<>();
+        while (rows.size() < batchSize && !activeTenants.isEmpty()) {
+            TenantQueue<T> queue = activeTenants.pollFirst();
+            queue.deficit += (long) policy.quantumRows() * queue.weight;
+            while (!queue.chunks.isEmpty() && rows.size() < batchSize
+                    && queue.chunks.peekFirst().rows().size() <= queue.deficit) {
+                Chunk<T> chunk = queue.chunks.pollFirst();
+                rows.addAll(chunk.rows());
+                walOffsets.add(chunk.walOffset());
+                queue.deficit -= chunk.rows().size();
+                queue.rows -= chunk.rows().size();
+            }
+            if (queue.chunks.isEmpty()) {
+                tenants.remove(queue.tenant);
+            } else {
+                activeTenants.addLast(queue);
+            }
+        }
+        pendingRows -= rows.size();
+        return new Batch<>(rows, walOffsets);
+    }
+
+    private long oldestEnqueuedAt() {
+        long oldest = Long.MAX_VALUE;
+        for (TenantQueue<T> queue : activeTenants) {
+            oldest = Math.min(oldest, queue.chunks.peekFirst().enqueuedAt());
+        }
+        return oldest;
+    }
+
+    private void flush(Batch<T> batch) {
+        List<T> rows = batch.rows();
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            sink.accept(rows);
+            flushedRows.addAndGet(rows.size());
+            log.debug("Flushed {} rows from {} buffer", rows.size(), name);
+        } catch (RuntimeException e) {
+            if (wal == null) {
+                droppedRows.addAndGet(rows.size());
+                log.error("Failed to flush {} rows from {} buffer: {}", rows.size(), name, e.getMessage(), e);
+                return;
+            }
+            log.warn("Failed to flush {} rows from {} buffer, replaying from the write-ahead log: {}",
+                    rows.size(), name, e.getMessage());
+            lock.lock();
+            try {
+                enterReplay();
+            } finally {
+                lock.unlock();
+            }
+            return;
+        }
+        if (wal != null) {
+            checkpoint(flushedThrough(batch.walOffsets()));
+        }
+    }
+
+    /**
+     * Batches leave the buffer out of WAL order, so the checkpoint may only advance to the
+     * oldest record that is still queued.
+     */
+    private long flushedThrough(List<Long> walOffsets) {
+        lock.lock();
+        try {
+            walOffsets.forEach(unflushedWalOffsets::remove);
+            if (replaying) {
+                return 0;
+            }
+            return unflushedWalOffsets.isEmpty() ? lastQueuedWalOffset : unflushedWalOffsets.first();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Deliver the next run of WAL records past the checkpoint, leaving replay mode once caught up
+     * @return false if the insert failed
+     */
+    private boolean replayFromWal() {
+        long from = wal.getCheckpointOffset();
+        WriteAheadLog.Records records = wal.read(from, batchSize);
+        if (records.isEmpty()) {
+            lock.lock();
+            try {
+                if (wal.getEndOffset() <= records.nextOffset()) {
+                    replaying = false;
+                    log.info("{} buffer caught up with the write-ahead log", name);
+                }
+            } finally {
+                lock.unlock();
+            }
+            checkpoint(records.nextOffset());
+            return true;
+        }
+        try {
+            replaySink.accept(records.payloads());
+        } catch (RuntimeException e) {
+            log.warn("Replay of {} rows from {} write-ahead log failed: {}", records.rows(), name, e.getMessage());
+            return false;
+        }
+        replayedRows.addAndGet(records.rows());
+        flushedRows.addAndGet(records.rows());
+        checkpoint(records.nextOffset());
+        return true;
+    }
+
+    /**
+     * Drop in-memory rows and let the flusher drain the WAL instead. Caller holds the lock.
+     */
+    private void enterReplay() {
+        replaying = true;
+        tenants.clear();
+        activeTenants.clear();
+        unflushedWalOffsets.clear();
+        pendingRows = 0;
+        batchReady.signal();
+    }
+
+    private void checkpoint(long walOffset) {
+        if (walOffset <= 0) {
+            return;
+        }
+        try {
+            wal.checkpoint(walOffset);
+        } catch (IOException e) {
+            log.error("Failed to checkpoint {} write-ahead log: {}", name, e.getMessage(), e);
+        }
+    }
+
+    private boolean pause(long millis) {
+        lock.lock();
+        try {
+            if (running) {
+                batchReady.await(millis, TimeUnit.MILLISECONDS);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void awaitDurable(long walOffset) {
+        try {
+            wal.awaitDurable(walOffset);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private EncodedRows encode(List<T> rows) {
+        EncodedRows encoded = new EncodedRows(rows.size() * 256);
+        try {
+            RowBinaryWriter writer = new RowBinaryWriter(encoded, 8192);
+            for (T row : rows) {
+                encoder.write(row, writer);
+            }
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return encoded;
+    }
+
+    /**
+     * Outcome of {@link #offer}
+     */
+    public enum Admission {
+        ACCEPTED,
+        /** The tenant's own queue is over its limit */
+        TENANT_LIMIT,
+        /** The buffer is past its high watermark and the tenant holds more than its fair share */
+        OVERLOADED,
+        /** The buffer is closed or the write-ahead log is full */
+        UNAVAILABLE
+    }
+
+    private static final class TenantQueue<T> {
+        private final UUID tenant;
+        private final int weight;
+        private final ArrayDeque<Chunk<T>> chunks = new ArrayDeque<>();
+        private int rows;
+        private long deficit;
+
+        TenantQueue(UUID tenant, int weight) {
+            this.tenant = tenant;
+            this.weight = weight;
+        }
+    }
+
+    private record Chunk<T>(List<T> rows, long enqueuedAt, long walOffset) {}
+
+    private record Batch<T>(List<T> rows, List<Long> walOffsets) {}
+
+    /**
+     * Byte sink exposing its backing array so WAL appends avoid an extra copy
+     */
+    private static final class EncodedRows extends ByteArrayOutputStream {
+        EncodedRows(int initialSize) {
+            super(initialSize);
+        }
+
+        byte[] bytes() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.observability.service.ingestion;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Micrometer instrumentation of the ingest path, published through Actuator:
+ * <ul>
+ *   <li>{@code ingestion.decode} - request decode time per signal and format</li>
+ *   <li>{@code ingestion.batch.rows} - rows per accepted request or stream chunk</li>
+ *   <li>{@code ingestion.rows} / {@code ingestion.bytes} - rows and payload bytes per signal and team</li>
+ *   <li>{@code ingestion.rejected.rows} - rows refused, per signal and reason</li>
+ *   <li>{@code ingestion.requests.failed} - requests failing to decode, per signal and reason</li>
+ *   <li>{@code ingestion.decompression.*} - compressed and inflated request bytes per Content-Encoding</li>
+ *   <li>{@code ingestion.clickhouse.insert} - insert latency per table, mode and outcome, with histogram buckets</li>
+ *   <li>{@code ingestion.buffer.*} - buffer occupancy, WAL backlog and replay state per table</li>
+ * </ul>
+ * Meters are created once per signal, team or table and cached, so recording costs a map lookup
+ * and an atomic add per request or batch and nothing per row.
+ */
+@Component
+public class IngestionMetrics {
+
+    /**
+     * Payload formats; NDJSON streams are long-lived, so their decode time includes waiting for input
+     */
+    public enum Format { JSON, NDJSON, OTLP }
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer[]> decodeTimers = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> batchRows = new ConcurrentHashMap<>();
+    private final Map<String, Map<UUID, Counter>> teamRows = new ConcurrentHashMap<>();
+    private final Map<String, Map<UUID, Counter>> teamBytes = new ConcurrentHashMap<>();
+    private final Map<String, Counter> rejectedRows = new ConcurrentHashMap<>();
+    private final Map<String, Counter> failedRequests = new ConcurrentHashMap<>();
+    private final Map<String, Counter[]> decompressionBytes = new ConcurrentHashMap<>();
+
+    public IngestionMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Time spent decoding a request into rows, excluding time spent handing rows on
+     */
+    public void recordDecode(String signal, Format format, long nanos) {
+        decodeTimers.computeIfAbsent(signal, this::decodeTimersOf)[format.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Rows received from a team in one request or stream chunk
+     */
+    public void recordRows(String signal, UUID teamId, int rows) {
+        batchRows.computeIfAbsent(signal, s -> DistributionSummary.builder("ingestion.batch.rows")
+                .description("Rows per accepted request or stream chunk")
+                .tag("signal", s)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(1.0)
+                .maximumExpectedValue(100_000.0)
+                .register(registry)).record(rows);
+        teamCounter(teamRows, "ingestion.rows", "Rows received per team", signal, teamId).increment(rows);
+    }
+
+    /**
+     * Payload bytes received from a team
+     */
+    public void recordBytes(String signal, UUID teamId, long bytes) {
+        teamCounter(teamBytes, "ingestion.bytes", "Payload bytes received per team", signal, teamId).increment(bytes);
+    }
+
+    /**
+     * Rows refused with a retryable or fatal error
+     */
+    public void recordRejected(String signal, String reason, int rows) {
+        rejectedRows.computeIfAbsent(signal + '/' + reason, key -> Counter.builder("ingestion.rejected.rows")
+                .description("Rows refused by ingestion")
+                .tag("signal", signal)
+                .tag("reason", reason)
+                .register(registry)).increment(rows);
+    }
+
+    /**
+     * A request that could not be decoded
+     */
+    public void recordFailedRequest(String signal, String reason) {
+        failedRequests.computeIfAbsent(signal + '/' + reason, key -> Counter.builder("ingestion.requests.failed")
+                .description("Ingestion requests that failed to decode")
+                .tag("signal", signal)
+                .tag("reason", reason)
+                .register(registry)).increment();
+    }
+
+    /**
+     * Bytes received and bytes inflated for one compressed request body
+     */
+    public void recordDecompression(String encoding, long compressedBytes, long inflatedBytes) {
+        Counter[] counters = decompressionBytes.computeIfAbsent(encoding, e -> new Counter[] {
+                Counter.builder("ingestion.decompression.compressed.bytes")
+                        .description("Compressed request body bytes received")
+                        .tag("encoding", e)
+                        .register(registry),
+                Counter.builder("ingestion.decompression.inflated.bytes")
+                        .description("Request body bytes after decompression")
+                        .tag("encoding", e)
+                        .register(registry)
+        });
+        counters[0].increment(compressedBytes);
+        counters[1].increment(inflatedBytes);
+    }
+
+    /**
+     * Wrap a ClickHouse insert so its latency and outcome are recorded
+     */
+    public <T> Consumer<List<T>> timedInsert(String table, Consumer<List<T>> insert) {
+        return timed(table, "buffer", insert);
+    }
+
+    /**
+     * Wrap a ClickHouse insert of WAL records, recorded like {@link #timedInsert} under mode=replay
+     */
+    public Consumer<List<ByteBuffer>> timedReplay(String table, Consumer<List<ByteBuffer>> insert) {
+        return timed(table, "replay", insert);
+    }
+
+    /**
+     * Wrap a direct insert of a request body, recorded like {@link #timedInsert} under mode=passthrough
+     */
+    public <T> Consumer<T> timedPassthrough(String table, Consumer<T> insert) {
+        return timed(table, "passthrough", insert);
+    }
+
+    /**
+     * Publish occupancy gauges of an ingestion buffer
+     */
+    public void registerBuffer(String table, IngestionBuffer<?> buffer) {
+        Gauge.builder("ingestion.buffer.pending.rows", buffer, IngestionBuffer::getPendingRows)
+                .description("Rows held in memory awaiting insert")
+                .tag("table", table)
+                .register(registry);
+        Gauge.builder("ingestion.buffer.capacity.rows", buffer, IngestionBuffer::getCapacity)
+                .tag("table", table)
+                .register(registry);
+        Gauge.builder("ingestion.buffer.tenants", buffer, b -> b.getTenantDepths().size())
+                .description("Teams with rows queued")
+                .tag("table", table)
+                .register(registry);
+        Gauge.builder("ingestion.buffer.wal.backlog.bytes", buffer, IngestionBuffer::getWalBacklogBytes)
+                .description("Write-ahead log bytes not yet inserted")
+                .tag("table", table)
+                .register(registry);
+        Gauge.builder("ingestion.buffer.replaying", buffer, b -> b.isReplaying() ? 1 : 0)
+                .description("1 while the buffer drains its write-ahead log instead of memory")
+                .tag("table", table)
+                .register(registry);
+        FunctionCounter.builder("ingestion.buffer.flushed.rows", buffer, IngestionBuffer::getFlushedRows)
+                .tag("table", table)
+                .register(registry);
+        FunctionCounter.builder("ingestion.buffer.dropped.rows", buffer, IngestionBuffer::getDroppedRows)
+                .description("Rows lost after a failed insert without a write-ahead log")
+                .tag("table", table)
+                .register(registry);
+    }
+
+    /**
+     * Count the bytes read from a request body
+     */
+    public static CountingInputStream counting(InputStream in) {
+        return new CountingInputStream(in);
+    }
+
+    private Timer[] decodeTimersOf(String signal) {
+        Timer[] timers = new Timer[Format.values().length];
+        for (Format format : Format.values()) {
+            timers[format.ordinal()] = Timer.builder("ingestion.decode")
+                    .description("Time to decode an ingestion request into rows")
+                    .tag("signal", signal)
+                    .tag("format", format.name().toLowerCase())
+                    .publishPercentileHistogram()
+                    .minimumExpectedValue(Duration.ofNanos(10_000))
+                    .maximumExpectedValue(Duration.ofSeconds(10))
+                    .register(registry);
+        }
+        return timers;
+    }
+
+    private <T> Consumer<T> timed(String table, String mode, Consumer<T> insert) {
+        Timer success = insertTimer(table, mode, "success");
+        Timer failure = insertTimer(table, mode, "failure");
+        return rows -> {
+            long start = System.nanoTime();
+            try {
+                insert.accept(rows);
+            } catch (RuntimeException e) {
+                failure.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                throw e;
+            }
+            success.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        };
+    }
+
+    private Timer insertTimer(String table, String mode, String outcome) {
+        return Timer.builder("ingestion.clickhouse.insert")
+                .description("ClickHouse insert latency")
+                .tag("table", table)
+                .tag("mode", mode)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(60))
+                .register(registry);
+    }
+
+    private Counter teamCounter(Map<String, Map<UUID, Counter>> counters, String name, String description,
+            String signal, UUID teamId) {
+        return counters.computeIfAbsent(signal, s -> new ConcurrentHashMap<>())
+                .computeIfAbsent(teamId, id -> Counter.builder(name)
+                        .description(description)
+                        .tag("signal", signal)
+                        .tag("team", id.toString())
+                        .register(registry));
+    }
+
+    /**
+     * Input stream that counts the bytes read through it
+     */
+    public static final class CountingInputStream extends FilterInputStream {
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
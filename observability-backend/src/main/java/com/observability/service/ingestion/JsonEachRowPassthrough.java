@@ -0,0 +1,177 @@
+package com.observability.service.ingestion;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.observability.common.exception.ValidationException;
+import com.observability.config.PassthroughProperties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Copies newline-delimited rows in ClickHouse JSONEachRow layout from a request body to an insert
+ * stream without decoding them. Each line is tokenized only far enough to check that its top-level
+ * keys are columns of the target table; values are skipped, never materialized. The team id is
+ * injected as the first field of every row, and a row that already names one must name the
+ * caller's.
+ */
+@Component
+public class JsonEachRowPassthrough {
+
+    private static final String TEAM_ID = "team_id";
+    private static final int INITIAL_BUFFER = 64 * 1024;
+
+    private final PassthroughProperties properties;
+    private final JsonFactory jsonFactory = new JsonFactory();
+    private final Set<UUID> trustedTeams = new HashSet<>();
+
+    public JsonEachRowPassthrough(PassthroughProperties properties) {
+        this.properties = properties;
+        properties.getTeams().forEach(id -> trustedTeams.add(convertTeamIdToUuid(id)));
+    }
+
+    /**
+     * Whether a team may insert rows directly
+     */
+    public boolean isTrusted(UUID teamId) {
+        return properties.isEnabled() && trustedTeams.contains(teamId);
+    }
+
+    /**
+     * Copy the rows of a body to an insert stream, failing on the first invalid row
+     * @param columns column list of the target table, as in {@code SpanRow.COLUMNS}
+     * @return number of rows copied
+     */
+    public int copy(UUID teamId, String columns, InputStream in, OutputStream out) throws IOException {
+        return new Copy(teamId, Set.of(columns.split(",\\s*")), out).run(in);
+    }
+
+    private static UUID convertTeamIdToUuid(Long teamId) {
+        return UUID.fromString(String.format("00000000-0000-0000-0000-%012d", teamId));
+    }
+
+    private final class Copy {
+        private final String team;
+        private final byte[] teamField;
+        private final Set<String> columns;
+        private final OutputStream out;
+        private final int maxRowBytes = properties.getMaxRowKb() * 1024;
+        private int rows;
+
+        Copy(UUID teamId, Set<String> columns, OutputStream out) {
+            this.team = teamId.toString();
+            this.teamField = ("{\"" + TEAM_ID + "\":\"" + team + "\"").getBytes(StandardCharsets.US_ASCII);
+            this.columns = columns;
+            this.out = out;
+        }
+
+        int run(InputStream in) throws IOException {
+            byte[] buffer = new byte[Math.min(INITIAL_BUFFER, maxRowBytes + 1)];
+            int start = 0;
+            int end = 0;
+            int scanned = 0;
+            while (true) {
+                int newline = indexOf(buffer, (byte) '\n', scanned, end);
+                if (newline >= 0) {
+                    row(buffer, start, newline);
+                    start = newline + 1;
+                    scanned = start;
+                    continue;
+                }
+                scanned = end;
+                if (end - start > maxRowBytes) {
+                    throw new ValidationException("Row " + (rows + 1) + " exceeds " + maxRowBytes + " bytes");
+                }
+                if (start > 0) {
+                    System.arraycopy(buffer, start, buffer, 0, end - start);
+                    end -= start;
+                    scanned -= start;
+                    start = 0;
+                } else if (end == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxRowBytes + 1));
+                }
+                int n = in.read(buffer, end, buffer.length - end);
+                if (n < 0) {
+                    row(buffer, start, end);
+                    return rows;
+                }
+                end += n;
+            }
+        }
+
+        private void row(byte[] buffer, int from, int to) throws IOException {
+            while (from < to && isWhitespace(buffer[from])) {
+                from++;
+            }
+            while (to > from && isWhitespace(buffer[to - 1])) {
+                to--;
+            }
+            if (from == to) {
+                return;
+            }
+            int row = rows + 1;
+            if (buffer[from] != '{') {
+                throw new ValidationException("Row " + row + " is not a JSON object");
+            }
+            int fields = 0;
+            boolean hasTeam = false;
+            try (JsonParser parser = jsonFactory.createParser(buffer, from, to - from)) {
+                parser.nextToken();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    if (TEAM_ID.equals(name)) {
+                        if (value != JsonToken.VALUE_STRING || !team.equalsIgnoreCase(parser.getText())) {
+                            throw new ValidationException("Row " + row + " names a team_id other than the caller's");
+                        }
+                        hasTeam = true;
+                    } else if (!columns.contains(name)) {
+                        throw new ValidationException("Row " + row + " has unknown column '" + name + "'");
+                    }
+                    parser.skipChildren();
+                    fields++;
+                }
+                if (parser.nextToken() != null) {
+                    throw new ValidationException("Row " + row + " has content after its closing brace");
+                }
+            } catch (JsonProcessingException e) {
+                throw new ValidationException("Malformed row " + row + ": " + e.getOriginalMessage());
+            }
+            if (hasTeam) {
+                out.write(buffer, from, to - from);
+            } else {
+                out.write(teamField);
+                if (fields > 0) {
+                    out.write(',');
+                    out.write(buffer, from + 1, to - from - 1);
+                } else {
+                    out.write('}');
+                }
+            }
+            out.write('\n');
+            rows = row;
+        }
+    }
+
+    private static int indexOf(byte[] buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,412 @@
+package com.observability.service.ingestion;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.observability.common.exception.ValidationException;
+import com.observability.repository.clickhouse.LogRow;
+import com.observability.service.ingestion.FieldDictionary.Field;
+import com.observability.repository.clickhouse.SpanRow;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Streaming decoder for the JSON ingestion payloads (arrays of SpanRequest / LogRequest objects,
+ * a batch object holding both, or newline-delimited objects).
+ * Reads the request body token by token and builds insert rows directly, handing them to the
+ * sink in fixed-size chunks so memory per request stays bounded regardless of batch size.
+ * Low-cardinality values are interned per team straight from the parser's buffer.
+ */
+@Component
+public class JsonTelemetryDecoder {
+
+    private final JsonFactory jsonFactory;
+    private final FieldDictionary dictionary;
+    private final long lineFlushIntervalMs;
+    private final ScheduledExecutorService lineFlusher;
+
+    public JsonTelemetryDecoder(ObjectMapper objectMapper, FieldDictionary dictionary,
+            @Value("${ingestion.ndjson.flush-interval-ms:1000}") long lineFlushIntervalMs,
+            @Value("${ingestion.ndjson.flush-threads:2}") int lineFlushThreads) {
+        this.jsonFactory = objectMapper.getFactory();
+        this.dictionary = dictionary;
+        this.lineFlushIntervalMs = lineFlushIntervalMs;
+        AtomicInteger flusherThreads = new AtomicInteger();
+        this.lineFlusher = Executors.newScheduledThreadPool(lineFlushThreads, r -> {
+            Thread thread = new Thread(r, "ndjson-flusher-" + flusherThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopLineFlusher() {
+        lineFlusher.shutdownNow();
+    }
+
+    /**
+     * Decode a JSON array of spans
+     * @return number of spans decoded
+     */
+    public int decodeSpans(UUID teamId, InputStream body, int chunkSize,
+            Consumer<List<SpanRow>> sink) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            return decodeArray(parser, parser.nextToken(), chunkSize, sink, p -> readSpan(teamId, p));
+        }
+    }
+
+    /**
+     * Decode a JSON array of logs
+     * @return number of logs decoded
+     */
+    public int decodeLogs(UUID teamId, InputStream body, int chunkSize,
+            Consumer<List<LogRow>> sink) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            return decodeArray(parser, parser.nextToken(), chunkSize, sink, p -> readLog(teamId, p));
+        }
+    }
+
+    /**
+     * Decode a batch object {@code {"spans": [...], "logs": [...]}} in one pass, in whichever
+     * order its fields appear. Each signal's chunks go to its own sink as soon as they are full.
+     */
+    public BatchCounts decodeBatch(UUID teamId, InputStream body, int chunkSize,
+            Consumer<List<SpanRow>> spanSink, Consumer<List<LogRow>> logSink) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new ValidationException("Expected a JSON object with spans and logs arrays");
+            }
+            int spans = 0;
+            int logs = 0;
+            String field;
+            while ((field = parser.nextFieldName()) != null) {
+                JsonToken token = parser.nextToken();
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "spans" -> spans += decodeArray(parser, token, chunkSize, spanSink, p -> readSpan(teamId, p));
+                    case "logs" -> logs += decodeArray(parser, token, chunkSize, logSink, p -> readLog(teamId, p));
+                    default -> parser.skipChildren();
+                }
+            }
+            return new BatchCounts(spans, logs);
+        }
+    }
+
+    /**
+     * Decode newline-delimited span objects (NDJSON) until the end of the body
+     * @return number of spans decoded
+     */
+    public int decodeSpanLines(UUID teamId, InputStream body, int chunkSize,
+            Consumer<List<SpanRow>> sink) throws IOException {
+        return decodeLines(body, chunkSize, sink, p -> readSpan(teamId, p));
+    }
+
+    /**
+     * Decode newline-delimited log objects (NDJSON) until the end of the body
+     * @return number of logs decoded
+     */
+    public int decodeLogLines(UUID teamId, InputStream body, int chunkSize,
+            Consumer<List<LogRow>> sink) throws IOException {
+        return decodeLines(body, chunkSize, sink, p -> readLog(teamId, p));
+    }
+
+    /**
+     * Decode a stream of root-level objects. Besides full chunks, a timer hands the partial chunk
+     * on every flush interval, so rows of a long-lived stream that goes quiet are accepted while
+     * the parser is still blocked waiting for the next line. The sink is then called from the
+     * flusher thread, never concurrently with the request thread; a failure there is rethrown
+     * on the request thread at the next row or at the end of the stream. An interval of 0 hands
+     * on every row as soon as it is decoded.
+     */
+    private <T> int decodeLines(InputStream body, int chunkSize, Consumer<List<T>> sink,
+            RowReader<T> reader) throws IOException {
+        LineChunk<T> chunk = new LineChunk<>(new ChunkBuffer<>(chunkSize, sink));
+        ScheduledFuture<?> timer = lineFlushIntervalMs > 0
+                ? lineFlusher.scheduleWithFixedDelay(chunk::flushIfIdle, lineFlushIntervalMs, lineFlushIntervalMs, TimeUnit.MILLISECONDS)
+                : null;
+        int count = 0;
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new ValidationException("Expected a JSON object on line " + parser.currentLocation().getLineNr());
+                }
+                chunk.add(reader.read(parser), timer == null);
+                count++;
+            }
+        } finally {
+            if (timer != null) {
+                timer.cancel(false);
+            }
+        }
+        chunk.flush();
+        return count;
+    }
+
+    /**
+     * Decode an array (or a single object) whose first token has been read
+     */
+    private <T> int decodeArray(JsonParser parser, JsonToken first, int chunkSize, Consumer<List<T>> sink,
+            RowReader<T> reader) throws IOException {
+        if (first == null) {
+            return 0;
+        }
+        if (first == JsonToken.START_OBJECT) {
+            sink.accept(List.of(reader.read(parser)));
+            return 1;
+        }
+        if (first != JsonToken.START_ARRAY) {
+            throw new ValidationException("Expected a JSON array of telemetry objects");
+        }
+
+        int count = 0;
+        List<T> chunk = new ArrayList<>(chunkSize);
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token != JsonToken.START_OBJECT) {
+                throw new ValidationException("Expected a JSON object at array index " + count);
+            }
+            chunk.add(reader.read(parser));
+            count++;
+            if (chunk.size() >= chunkSize) {
+                sink.accept(chunk);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            sink.accept(chunk);
+        }
+        return count;
+    }
+
+    /**
+     * Read one span object; the parser is positioned on its START_OBJECT
+     */
+    private SpanRow readSpan(UUID teamId, JsonParser parser) throws IOException {
+        SpanRow row = new SpanRow();
+        row.setTeamId(teamId);
+        Long durationMs = null;
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "traceId" -> row.setTraceId(parser.getText());
+                case "spanId" -> row.setSpanId(parser.getText());
+                case "parentSpanId" -> row.setParentSpanId(parser.getText());
+                case "isRoot" -> row.setRoot(parser.getValueAsBoolean());
+                case "operationName" -> row.setOperationName(parser.getText());
+                case "serviceName" -> row.setServiceName(intern(teamId, Field.SERVICE_NAME, parser));
+                case "spanKind" -> row.setSpanKind(intern(teamId, Field.SPAN_KIND, parser));
+                case "startTime" -> row.setStartTimeNanos(readTimestamp(parser));
+                case "endTime" -> row.setEndTimeNanos(readTimestamp(parser));
+                case "durationMs" -> durationMs = parser.getValueAsLong();
+                case "status" -> row.setStatus(intern(teamId, Field.STATUS, parser));
+                case "statusMessage" -> row.setStatusMessage(parser.getText());
+                case "httpMethod" -> row.setHttpMethod(intern(teamId, Field.HTTP_METHOD, parser));
+                case "httpUrl" -> row.setHttpUrl(parser.getText());
+                case "httpStatusCode" -> row.setHttpStatusCode(parser.getValueAsInt());
+                case "host" -> row.setHost(intern(teamId, Field.HOST, parser));
+                case "pod" -> row.setPod(intern(teamId, Field.POD, parser));
+                case "container" -> row.setContainer(intern(teamId, Field.CONTAINER, parser));
+                case "attributes" -> row.setAttributes(readAttributes(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        // Missing times are filled in by TimestampNormalizer
+        row.setDurationMs(durationMs != null ? durationMs : 0L);
+        return row;
+    }
+
+    /**
+     * Read one log object; the parser is positioned on its START_OBJECT
+     */
+    private LogRow readLog(UUID teamId, JsonParser parser) throws IOException {
+        LogRow row = new LogRow();
+        row.setTeamId(teamId);
+        String field;
+        while ((field = parser.nextFieldName()) != null) {
+            if (parser.nextToken() == JsonToken.VALUE_NULL) {
+                continue;
+            }
+            switch (field) {
+                case "timestamp" -> row.setTimestampNanos(readTimestamp(parser));
+                case "level" -> row.setLevel(intern(teamId, Field.LEVEL, parser));
+                case "serviceName" -> row.setServiceName(intern(teamId, Field.SERVICE_NAME, parser));
+                case "logger" -> row.setLogger(intern(teamId, Field.LOGGER, parser));
+                case "message" -> row.setMessage(parser.getText());
+                case "traceId" -> row.setTraceId(parser.getText());
+                case "spanId" -> row.setSpanId(parser.getText());
+                case "host" -> row.setHost(intern(teamId, Field.HOST, parser));
+                case "pod" -> row.setPod(intern(teamId, Field.POD, parser));
+                case "container" -> row.setContainer(intern(teamId, Field.CONTAINER, parser));
+                case "thread" -> row.setThread(intern(teamId, Field.THREAD, parser));
+                case "exception" -> row.setException(parser.getText());
+                case "attributes" -> row.setAttributes(readAttributes(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return row;
+    }
+
+    private String intern(UUID teamId, Field field, JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.VALUE_STRING) {
+            return dictionary.intern(teamId, field, parser.getText());
+        }
+        return dictionary.intern(teamId, field, parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    }
+
+    private long readTimestamp(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return TimestampParser.epochToNanos(parser.getLongValue());
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return 0L;
+        }
+        try {
+            return TimestampParser.parseNanos(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        } catch (IllegalArgumentException e) {
+            throw new ValidationException(e.getMessage());
+        }
+    }
+
+    private Map<String, String> readAttributes(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return Map.of();
+        }
+        Map<String, String> attributes = new HashMap<>();
+        String key;
+        while ((key = parser.nextFieldName()) != null) {
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT || value == JsonToken.START_ARRAY) {
+                parser.skipChildren();
+            } else if (value != JsonToken.VALUE_NULL) {
+                attributes.put(key, parser.getText());
+            }
+        }
+        return attributes;
+    }
+
+    @FunctionalInterface
+    private interface RowReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Chunk of a line stream shared between the request thread and the flusher timer
+     */
+    private static final class LineChunk<T> {
+        private final ChunkBuffer<T> buffer;
+        private final ReentrantLock lock = new ReentrantLock();
+        private RuntimeException failure;
+
+        LineChunk(ChunkBuffer<T> buffer) {
+            this.buffer = buffer;
+        }
+
+        void add(T row, boolean flush) {
+            lock.lock();
+            try {
+                rethrowFailure();
+                buffer.add(row);
+                if (flush) {
+                    buffer.flush();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void flush() {
+            lock.lock();
+            try {
+                rethrowFailure();
+                buffer.flush();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Timer tick: hand on pending rows unless the request thread holds the chunk right now,
+         * in which case the next tick does
+         */
+        void flushIfIdle() {
+            if (!lock.tryLock()) {
+                return;
+            }
+            try {
+                if (failure == null) {
+                    buffer.flush();
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void rethrowFailure() {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Rows decoded but not yet handed to the sink
+     */
+    private static final class ChunkBuffer<T> {
+        private final int chunkSize;
+        private final Consumer<List<T>> sink;
+        private List<T> rows;
+
+        ChunkBuffer(int chunkSize, Consumer<List<T>> sink) {
+            this.chunkSize = chunkSize;
+            this.sink = sink;
+            this.rows = new ArrayList<>(chunkSize);
+        }
+
+        void add(T row) {
+            rows.add(row);
+            if (rows.size() >= chunkSize) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (!rows.isEmpty()) {
+                List<T> full = rows;
+                rows = new ArrayList<>(chunkSize);
+                sink.accept(full);
+            }
+        }
+    }
+
+    /**
+     * Rows decoded per signal from a batch payload
+     */
+    public record BatchCounts(int spans, int logs) {}
+}
@@ -0,0 +1,241 @@
+package com.observability.service.ingestion;
+
+import com.observability.repository.clickhouse.LogRow;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Online log template miner (Drain). Each message is tokenized on whitespace, tokens containing
+ * digits are masked, and the message is routed through a fixed-depth tree keyed on token count and
+ * leading tokens to a handful of candidate templates. It joins the most similar template if enough
+ * tokens match (differing positions become {@code <*>}), otherwise it starts a new one.
+ * <p>
+ * Rows get a {@code pattern_id}, the template, and the tokens found at its wildcard positions.
+ * The id is a hash of the template as first created and is kept as later messages widen it
+ * into more wildcards, so a pattern's rows share one id through its life; instances that
+ * created the template from the same first message agree on it. Trees are kept per team and bounded;
+ * once a team has too many templates, new ones are no longer created and unmatched messages keep
+ * pattern_id 0.
+ */
+@Component
+public class LogPatternMiner {
+
+    private static final String WILDCARD = "<*>";
+
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final int maxTemplatesPerTeam;
+    private final int maxChildren;
+    private final int maxTokens;
+    private final int prefixDepth;
+
+    private final Map<UUID, TemplateTree> trees = new ConcurrentHashMap<>();
+
+    public LogPatternMiner(@Value("${ingestion.patterns.enabled:true}") boolean enabled,
+            @Value("${ingestion.patterns.similarity-threshold:0.4}") double similarityThreshold,
+            @Value("${ingestion.patterns.max-templates-per-team:5000}") int maxTemplatesPerTeam,
+            @Value("${ingestion.patterns.max-children:100}") int maxChildren,
+            @Value("${ingestion.patterns.max-tokens:64}") int maxTokens,
+            @Value("${ingestion.patterns.prefix-depth:2}") int prefixDepth) {
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.maxTemplatesPerTeam = maxTemplatesPerTeam;
+        this.maxChildren = maxChildren;
+        this.maxTokens = maxTokens;
+        this.prefixDepth = prefixDepth;
+    }
+
+    /**
+     * Assign pattern id, template and parameters to each log row in place
+     */
+    public void mine(UUID teamId, List<LogRow> rows) {
+        if (!enabled) {
+            return;
+        }
+        TemplateTree tree = trees.computeIfAbsent(teamId, id -> new TemplateTree());
+        // Tokenize outside the lock, then match the whole chunk under one acquisition
+        String[][] tokenized = new String[rows.size()][];
+        boolean any = false;
+        for (int i = 0; i < rows.size(); i++) {
+            String message = rows.get(i).getMessage();
+            if (message == null || message.isEmpty()) {
+                continue;
+            }
+            String[] tokens = tokenize(message);
+            if (tokens.length > 0 && tokens.length <= maxTokens) {
+                tokenized[i] = tokens;
+                any = true;
+            }
+        }
+        if (!any) {
+            return;
+        }
+        synchronized (tree) {
+            for (int i = 0; i < rows.size(); i++) {
+                String[] tokens = tokenized[i];
+                if (tokens == null) {
+                    continue;
+                }
+                Template template = tree.match(tokens);
+                if (template != null) {
+                    LogRow row = rows.get(i);
+                    row.setPatternId(template.id);
+                    row.setPattern(template.text);
+                    row.setPatternParams(template.parameters(tokens));
+                }
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        int templates = 0;
+        for (TemplateTree tree : trees.values()) {
+            templates += tree.templateCount;
+        }
+        return Map.of("enabled", enabled, "teams", trees.size(), "templates", templates);
+    }
+
+    private static String[] tokenize(String message) {
+        List<String> tokens = new ArrayList<>();
+        int length = message.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && Character.isWhitespace(message.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && !Character.isWhitespace(message.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                tokens.add(message.substring(start, i));
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    private static boolean hasDigit(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drain parse tree of one team: token count, then the first {@code prefixDepth} tokens
+     * (tokens with digits share the wildcard branch), then a list of templates
+     */
+    private final class TemplateTree {
+        private final Map<Integer, Node> byLength = new HashMap<>();
+        private int templateCount;
+
+        Template match(String[] tokens) {
+            Node node = byLength.computeIfAbsent(tokens.length, n -> new Node());
+            int depth = Math.min(prefixDepth, tokens.length);
+            for (int i = 0; i < depth; i++) {
+                String key = hasDigit(tokens[i]) ? WILDCARD : tokens[i];
+                if (!node.children.containsKey(key) && node.children.size() >= maxChildren) {
+                    key = WILDCARD;
+                }
+                node = node.children.computeIfAbsent(key, k -> new Node());
+            }
+
+            Template best = null;
+            double bestSimilarity = -1;
+            for (Template candidate : node.templates) {
+                double similarity = candidate.similarity(tokens);
+                if (similarity > bestSimilarity) {
+                    best = candidate;
+                    bestSimilarity = similarity;
+                }
+            }
+            if (best != null && bestSimilarity >= similarityThreshold) {
+                best.merge(tokens);
+                return best;
+            }
+            if (templateCount >= maxTemplatesPerTeam) {
+                return null;
+            }
+            Template created = new Template(tokens);
+            node.templates.add(created);
+            templateCount++;
+            return created;
+        }
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private final List<Template> templates = new ArrayList<>(2);
+    }
+
+    /**
+     * Template tokens plus its cached text and id; only touched under the tree's lock
+     */
+    private static final class Template {
+        private final String[] tokens;
+        private final long id;
+        private String text;
+
+        Template(String[] messageTokens) {
+            this.tokens = new String[messageTokens.length];
+            for (int i = 0; i < messageTokens.length; i++) {
+                tokens[i] = hasDigit(messageTokens[i]) ? WILDCARD : messageTokens[i];
+            }
+            this.text = String.join(" ", tokens);
+            this.id = Hash64.hash(text);
+        }
+
+        /**
+         * Share of positions where the message token equals a constant template token;
+         * wildcard positions don't count as matches
+         */
+        double similarity(String[] messageTokens) {
+            int matches = 0;
+            for (int i = 0; i < tokens.length; i++) {
+                if (!WILDCARD.equals(tokens[i]) && tokens[i].equals(messageTokens[i])) {
+                    matches++;
+                }
+            }
+            return (double) matches / tokens.length;
+        }
+
+        void merge(String[] messageTokens) {
+            boolean changed = false;
+            for (int i = 0; i < tokens.length; i++) {
+                if (!WILDCARD.equals(tokens[i]) && !tokens[i].equals(messageTokens[i])) {
+                    tokens[i] = WILDCARD;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                text = String.join(" ", tokens);
+            }
+        }
+
+        /**
+         * Message tokens at the template's wildcard positions
+         */
+        List<String> parameters(String[] messageTokens) {
+            List<String> parameters = null;
+            for (int i = 0; i < tokens.length; i++) {
+                if (WILDCARD.equals(tokens[i])) {
+                    if (parameters == null) {
+                        parameters = new ArrayList<>(4);
+                    }
+                    parameters.add(messageTokens[i]);
+                }
+            }
+            return parameters != null ? parameters : List.of();
+        }
+    }
+}
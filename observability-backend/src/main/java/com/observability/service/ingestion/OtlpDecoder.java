@@ -0,0 +1,254 @@
+package com.observability.service.ingestion;
+
+import com.google.protobuf.ByteString;
+import com.observability.repository.clickhouse.LogRow;
+import com.observability.service.ingestion.FieldDictionary.Field;
+import com.observability.repository.clickhouse.SpanRow;
+import io.opentelemetry.proto.collector.logs.v1.ExportLogsServiceRequest;
+import io.opentelemetry.proto.collector.trace.v1.ExportTraceServiceRequest;
+import io.opentelemetry.proto.common.v1.AnyValue;
+import io.opentelemetry.proto.common.v1.KeyValue;
+import io.opentelemetry.proto.logs.v1.LogRecord;
+import io.opentelemetry.proto.logs.v1.ResourceLogs;
+import io.opentelemetry.proto.logs.v1.ScopeLogs;
+import io.opentelemetry.proto.resource.v1.Resource;
+import io.opentelemetry.proto.trace.v1.ResourceSpans;
+import io.opentelemetry.proto.trace.v1.ScopeSpans;
+import io.opentelemetry.proto.trace.v1.Span;
+import io.opentelemetry.proto.trace.v1.Status;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Decodes OTLP protobuf export requests straight into ClickHouse insert rows.
+ * Well-known semantic-convention attributes are lifted into dedicated columns,
+ * everything else lands in the attributes map. Low-cardinality values are interned per team.
+ */
+@Component
+@RequiredArgsConstructor
+public class OtlpDecoder {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final FieldDictionary dictionary;
+
+    /**
+     * Decode an OTLP trace export request into span rows
+     */
+    public List<SpanRow> decodeTraces(UUID teamId, ExportTraceServiceRequest request) {
+        List<SpanRow> rows = new ArrayList<>();
+        for (ResourceSpans resourceSpans : request.getResourceSpansList()) {
+            ResourceInfo resource = ResourceInfo.of(resourceSpans.getResource(), teamId, dictionary);
+            for (ScopeSpans scopeSpans : resourceSpans.getScopeSpansList()) {
+                for (Span span : scopeSpans.getSpansList()) {
+                    rows.add(toSpanRow(teamId, resource, span));
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Decode an OTLP logs export request into log rows
+     */
+    public List<LogRow> decodeLogs(UUID teamId, ExportLogsServiceRequest request) {
+        List<LogRow> rows = new ArrayList<>();
+        for (ResourceLogs resourceLogs : request.getResourceLogsList()) {
+            ResourceInfo resource = ResourceInfo.of(resourceLogs.getResource(), teamId, dictionary);
+            for (ScopeLogs scopeLogs : resourceLogs.getScopeLogsList()) {
+                String logger = dictionary.intern(teamId, Field.LOGGER, scopeLogs.getScope().getName());
+                for (LogRecord record : scopeLogs.getLogRecordsList()) {
+                    rows.add(toLogRow(teamId, resource, logger, record));
+                }
+            }
+        }
+        return rows;
+    }
+
+    private SpanRow toSpanRow(UUID teamId, ResourceInfo resource, Span span) {
+        SpanRow row = new SpanRow();
+        row.setTeamId(teamId);
+        row.setTraceId(toHex(span.getTraceId()));
+        row.setSpanId(toHex(span.getSpanId()));
+        row.setRoot(span.getParentSpanId().isEmpty());
+        row.setParentSpanId(row.isRoot() ? null : toHex(span.getParentSpanId()));
+        row.setOperationName(span.getName());
+        row.setServiceName(resource.serviceName);
+        row.setSpanKind(toSpanKind(span.getKind()));
+        row.setStartTimeNanos(span.getStartTimeUnixNano());
+        row.setEndTimeNanos(span.getEndTimeUnixNano());
+        row.setDurationMs(Math.max(0L, span.getEndTimeUnixNano() - span.getStartTimeUnixNano()) / 1_000_000L);
+        row.setStatus(span.getStatus().getCode() == Status.StatusCode.STATUS_CODE_ERROR ? "ERROR" : "OK");
+        row.setStatusMessage(span.getStatus().getMessage());
+        row.setHost(resource.host);
+        row.setPod(resource.pod);
+        row.setContainer(resource.container);
+
+        Map<String, String> attributes = new HashMap<>();
+        for (KeyValue attribute : span.getAttributesList()) {
+            String key = attribute.getKey();
+            AnyValue value = attribute.getValue();
+            switch (key) {
+                case "http.method", "http.request.method" -> row.setHttpMethod(dictionary.intern(teamId, Field.HTTP_METHOD, toText(value)));
+                case "http.url", "url.full", "http.target" -> row.setHttpUrl(toText(value));
+                case "http.status_code", "http.response.status_code" -> row.setHttpStatusCode(toInt(value));
+                default -> attributes.put(key, toText(value));
+            }
+        }
+        row.setAttributes(attributes);
+        return row;
+    }
+
+    private LogRow toLogRow(UUID teamId, ResourceInfo resource, String logger, LogRecord record) {
+        LogRow row = new LogRow();
+        row.setTeamId(teamId);
+        long timestamp = record.getTimeUnixNano() != 0 ? record.getTimeUnixNano() : record.getObservedTimeUnixNano();
+        row.setTimestampNanos(timestamp != 0 ? timestamp : System.currentTimeMillis() * 1_000_000L);
+        row.setLevel(dictionary.intern(teamId, Field.LEVEL, toLevel(record.getSeverityText(), record.getSeverityNumberValue())));
+        row.setServiceName(resource.serviceName);
+        row.setLogger(logger);
+        row.setMessage(toText(record.getBody()));
+        row.setTraceId(toHex(record.getTraceId()));
+        row.setSpanId(toHex(record.getSpanId()));
+        row.setHost(resource.host);
+        row.setPod(resource.pod);
+        row.setContainer(resource.container);
+
+        Map<String, String> attributes = new HashMap<>();
+        for (KeyValue attribute : record.getAttributesList()) {
+            String key = attribute.getKey();
+            AnyValue value = attribute.getValue();
+            switch (key) {
+                case "thread.name" -> row.setThread(dictionary.intern(teamId, Field.THREAD, toText(value)));
+                case "exception.stacktrace" -> row.setException(toText(value));
+                case "exception.message" -> {
+                    if (row.getException().isEmpty()) {
+                        row.setException(toText(value));
+                    }
+                }
+                default -> attributes.put(key, toText(value));
+            }
+        }
+        row.setAttributes(attributes);
+        return row;
+    }
+
+    private static String toSpanKind(Span.SpanKind kind) {
+        return switch (kind) {
+            case SPAN_KIND_SERVER -> "SERVER";
+            case SPAN_KIND_CLIENT -> "CLIENT";
+            case SPAN_KIND_PRODUCER -> "PRODUCER";
+            case SPAN_KIND_CONSUMER -> "CONSUMER";
+            default -> "INTERNAL";
+        };
+    }
+
+    /**
+     * Map OTLP severity onto the DEBUG|INFO|WARN|ERROR|FATAL levels used by the logs table
+     */
+    private static String toLevel(String severityText, int severityNumber) {
+        if (!severityText.isEmpty()) {
+            String upper = severityText.toUpperCase();
+            return switch (upper) {
+                case "TRACE", "DEBUG" -> "DEBUG";
+                case "WARNING" -> "WARN";
+                case "CRITICAL", "SEVERE" -> "FATAL";
+                default -> upper;
+            };
+        }
+        if (severityNumber == 0) {
+            return "INFO";
+        }
+        if (severityNumber <= 8) {
+            return "DEBUG";
+        }
+        if (severityNumber <= 12) {
+            return "INFO";
+        }
+        if (severityNumber <= 16) {
+            return "WARN";
+        }
+        return severityNumber <= 20 ? "ERROR" : "FATAL";
+    }
+
+    private static String toText(AnyValue value) {
+        return switch (value.getValueCase()) {
+            case STRING_VALUE -> value.getStringValue();
+            case BOOL_VALUE -> Boolean.toString(value.getBoolValue());
+            case INT_VALUE -> Long.toString(value.getIntValue());
+            case DOUBLE_VALUE -> Double.toString(value.getDoubleValue());
+            case BYTES_VALUE -> toHex(value.getBytesValue());
+            case ARRAY_VALUE -> value.getArrayValue().getValuesList().stream()
+                    .map(OtlpDecoder::toText)
+                    .toList()
+                    .toString();
+            case KVLIST_VALUE -> {
+                Map<String, String> map = new HashMap<>();
+                for (KeyValue kv : value.getKvlistValue().getValuesList()) {
+                    map.put(kv.getKey(), toText(kv.getValue()));
+                }
+                yield map.toString();
+            }
+            default -> "";
+        };
+    }
+
+    private static int toInt(AnyValue value) {
+        if (value.getValueCase() == AnyValue.ValueCase.INT_VALUE) {
+            return (int) value.getIntValue();
+        }
+        try {
+            return Integer.parseInt(toText(value));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String toHex(ByteString bytes) {
+        int size = bytes.size();
+        if (size == 0) {
+            return "";
+        }
+        char[] chars = new char[size * 2];
+        for (int i = 0; i < size; i++) {
+            int b = bytes.byteAt(i) & 0xFF;
+            chars[i * 2] = HEX[b >>> 4];
+            chars[i * 2 + 1] = HEX[b & 0x0F];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Resource-level attributes shared by every span/log of a resource block
+     */
+    private static final class ResourceInfo {
+        private String serviceName = "unknown";
+        private String host = "";
+        private String pod = "";
+        private String container = "";
+
+        static ResourceInfo of(Resource resource, UUID teamId, FieldDictionary dictionary) {
+            ResourceInfo info = new ResourceInfo();
+            for (KeyValue attribute : resource.getAttributesList()) {
+                switch (attribute.getKey()) {
+                    case "service.name" -> info.serviceName = toText(attribute.getValue());
+                    case "host.name" -> info.host = toText(attribute.getValue());
+                    case "k8s.pod.name" -> info.pod = toText(attribute.getValue());
+                    case "k8s.container.name", "container.name" -> info.container = toText(attribute.getValue());
+                    default -> { }
+                }
+            }
+            info.serviceName = dictionary.intern(teamId, Field.SERVICE_NAME, info.serviceName);
+            info.host = dictionary.intern(teamId, Field.HOST, info.host);
+            info.pod = dictionary.intern(teamId, Field.POD, info.pod);
+            info.container = dictionary.intern(teamId, Field.CONTAINER, info.container);
+            return info;
+        }
+    }
+}
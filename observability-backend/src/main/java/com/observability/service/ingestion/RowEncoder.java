@@ -0,0 +1,15 @@
+package com.observability.service.ingestion;
+
+import com.observability.repository.clickhouse.RowBinaryWriter;
+
+import java.io.IOException;
+
+/**
+ * Encodes a single row in ClickHouse RowBinary, used to persist buffered rows to the write-ahead log.
+ *
+ * @param <T> Row type
+ */
+@FunctionalInterface
+public interface RowEncoder<T> {
+    void write(T row, RowBinaryWriter writer) throws IOException;
+}
@@ -0,0 +1,226 @@
+package com.observability.service.ingestion;
+
+import com.observability.repository.clickhouse.SpanRow;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drops spans already seen on (team_id, trace_id, span_id), typically collector retries.
+ * <p>
+ * Membership is tracked in two rotating Bloom filter generations: keys are inserted into the
+ * current one and looked up in both, and the current generation is retired once it holds its
+ * expected number of keys or reaches its max age. Memory is therefore fixed at two filters,
+ * and a retry is caught as long as it arrives within roughly one to two generations.
+ * Lookups and inserts are lock-free. False positives (a new span wrongly treated as a
+ * duplicate) occur at the configured rate.
+ * <p>
+ * Keys that passed {@link #filter} are claimed until the caller either remembers them, once the
+ * spans are accepted, or releases them, so a concurrent copy of an in-flight span is dropped
+ * while a rejected batch can still be retried.
+ */
+@Component
+@Slf4j
+public class SpanDeduplicator {
+
+    private final boolean enabled;
+    private final long expectedInsertions;
+    private final long maxAgeNanos;
+    private final int bitCount;
+    private final int hashCount;
+
+    private final AtomicReference<Generations> generations;
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+    private final Counter hits;
+    private final Counter misses;
+
+    public SpanDeduplicator(MeterRegistry meterRegistry,
+            @Value("${ingestion.dedup.enabled:true}") boolean enabled,
+            @Value("${ingestion.dedup.expected-spans-per-generation:5000000}") long expectedInsertions,
+            @Value("${ingestion.dedup.false-positive-rate:0.001}") double falsePositiveRate,
+            @Value("${ingestion.dedup.generation-max-age-seconds:300}") long maxAgeSeconds) {
+        this.enabled = enabled;
+        this.expectedInsertions = expectedInsertions;
+        this.maxAgeNanos = TimeUnit.SECONDS.toNanos(maxAgeSeconds);
+        double bits = -expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, (long) bits));
+        this.hashCount = Math.max(1, (int) Math.round(bitCount / (double) expectedInsertions * Math.log(2)));
+        this.generations = new AtomicReference<>(new Generations(new Filter(bitCount), new Filter(bitCount)));
+
+        this.hits = Counter.builder("ingestion.dedup.checks")
+                .description("Spans checked against the dedup filter")
+                .tag("result", "duplicate")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ingestion.dedup.checks")
+                .description("Spans checked against the dedup filter")
+                .tag("result", "new")
+                .register(meterRegistry);
+        Gauge.builder("ingestion.dedup.generation.fill", this, d -> d.generations.get().current.insertions.get()
+                        / (double) d.expectedInsertions)
+                .description("Share of expected keys inserted into the current filter generation")
+                .register(meterRegistry);
+
+        if (enabled) {
+            log.info("Span dedup filter: {} bits x 2 generations, {} hashes", bitCount, hashCount);
+        }
+    }
+
+    /**
+     * Remove spans whose key has been remembered before, is claimed by another request or
+     * repeats within the list, and claim the keys of the rest. Every call must be followed by
+     * {@link #remember} once the returned spans are accepted, or by {@link #release} if they are
+     * rejected.
+     */
+    public List<SpanRow> filter(UUID teamId, List<SpanRow> spans) {
+        if (!enabled) {
+            return spans;
+        }
+        Generations gens = generations.get();
+        List<SpanRow> fresh = null;
+        for (int i = 0; i < spans.size(); i++) {
+            SpanRow span = spans.get(i);
+            boolean duplicate = false;
+            if (!span.getSpanId().isEmpty()) {
+                long h1 = primaryHash(teamId, span);
+                long h2 = secondaryHash(h1);
+                duplicate = gens.current.contains(h1, h2, hashCount, bitCount)
+                        || gens.previous.contains(h1, h2, hashCount, bitCount)
+                        || !inFlight.add(h1);
+                (duplicate ? hits : misses).increment();
+            }
+            if (duplicate && fresh == null) {
+                fresh = new ArrayList<>(spans.subList(0, i));
+            } else if (!duplicate && fresh != null) {
+                fresh.add(span);
+            }
+        }
+        return fresh != null ? fresh : spans;
+    }
+
+    /**
+     * Record the keys of accepted spans so later copies are filtered out, and drop their claims
+     */
+    public void remember(UUID teamId, List<SpanRow> spans) {
+        if (!enabled) {
+            return;
+        }
+        Generations gens = rotateIfDue();
+        for (SpanRow span : spans) {
+            if (!span.getSpanId().isEmpty()) {
+                long h1 = primaryHash(teamId, span);
+                gens.current.add(h1, secondaryHash(h1), hashCount, bitCount);
+                inFlight.remove(h1);
+            }
+        }
+    }
+
+    /**
+     * Drop the claims of rejected spans so a retry is not taken for a duplicate
+     */
+    public void release(UUID teamId, List<SpanRow> spans) {
+        if (!enabled) {
+            return;
+        }
+        for (SpanRow span : spans) {
+            if (!span.getSpanId().isEmpty()) {
+                inFlight.remove(primaryHash(teamId, span));
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Generations gens = generations.get();
+        return Map.of(
+                "enabled", enabled,
+                "duplicates", (long) hits.count(),
+                "unique", (long) misses.count(),
+                "currentGenerationInsertions", gens.current.insertions.get(),
+                "expectedInsertionsPerGeneration", expectedInsertions,
+                "bitsPerGeneration", bitCount,
+                "hashFunctions", hashCount
+        );
+    }
+
+    private static long primaryHash(UUID teamId, SpanRow span) {
+        long h = Hash64.update(Hash64.update(teamId.getMostSignificantBits(), teamId.getLeastSignificantBits()),
+                span.getTraceId());
+        return Hash64.update(h, span.getSpanId());
+    }
+
+    private static long secondaryHash(long h1) {
+        return Hash64.update(h1, 0x2545F4914F6CDD1DL) | 1;
+    }
+
+    private Generations rotateIfDue() {
+        Generations gens = generations.get();
+        if (gens.current.insertions.get() < expectedInsertions
+                && System.nanoTime() - gens.current.createdAt < maxAgeNanos) {
+            return gens;
+        }
+        Generations rotated = new Generations(new Filter(bitCount), gens.current);
+        if (generations.compareAndSet(gens, rotated)) {
+            log.debug("Rotated span dedup filter after {} insertions", gens.current.insertions.get());
+            return rotated;
+        }
+        return generations.get();
+    }
+
+    private record Generations(Filter current, Filter previous) {}
+
+    /**
+     * Bloom filter over an AtomicLongArray; bit positions by double hashing
+     */
+    private static final class Filter {
+        private final AtomicLongArray words;
+        private final AtomicLong insertions = new AtomicLong();
+        private final long createdAt = System.nanoTime();
+
+        Filter(int bitCount) {
+            this.words = new AtomicLongArray((bitCount + 63) >>> 6);
+        }
+
+        void add(long h1, long h2, int hashCount, int bitCount) {
+            boolean added = false;
+            long combined = h1;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (int) Long.remainderUnsigned(combined, bitCount);
+                long mask = 1L << bit;
+                int index = bit >>> 6;
+                if ((words.get(index) & mask) == 0) {
+                    added = true;
+                    words.getAndAccumulate(index, mask, (w, m) -> w | m);
+                }
+                combined += h2;
+            }
+            if (added) {
+                insertions.incrementAndGet();
+            }
+        }
+
+        boolean contains(long h1, long h2, int hashCount, int bitCount) {
+            long combined = h1;
+            for (int i = 0; i < hashCount; i++) {
+                int bit = (int) Long.remainderUnsigned(combined, bitCount);
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+                combined += h2;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.observability.service.ingestion;
+
+import com.observability.config.SpanMetricsProperties;
+import com.observability.repository.clickhouse.ClickHouseSpanMetricsRepository;
+import com.observability.repository.clickhouse.LatencyHistogram;
+import com.observability.repository.clickhouse.SpanMetricRow;
+import com.observability.repository.clickhouse.SpanRow;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Aggregates spans into per-minute RED series at ingestion and periodically writes them to
+ * span_metrics_1m.
+ * <p>
+ * A series is (team, minute, service, span kind, root flag, configured dimension values) and
+ * holds a span count, error count, duration sum/max and a {@link LatencyHistogram}. Spans are
+ * aggregated before tail sampling, so counts are exact regardless of what is later dropped.
+ * Each flush writes and forgets every series touched since the previous one; queries sum the
+ * partial rows. New series per team and minute are capped within each flush interval; spans
+ * beyond the cap land in a single overflow series whose dimensions are all {@value #OVERFLOW}.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class SpanMetricsAggregator {
+
+    private static final String OVERFLOW = "__overflow__";
+
+    private final SpanMetricsProperties properties;
+    private final ClickHouseSpanMetricsRepository repository;
+
+    private final Map<SeriesKey, Series> series = new ConcurrentHashMap<>();
+    private final Map<TeamMinute, AtomicInteger> seriesPerTeamMinute = new ConcurrentHashMap<>();
+    private final Map<UUID, List<Dimension>> teamDimensions = new ConcurrentHashMap<>();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+    private final AtomicLong overflowSpans = new AtomicLong();
+    private ScheduledExecutorService flusher;
+
+    @PostConstruct
+    void start() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "span-metrics-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = properties.getFlushIntervalMs();
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flush();
+        }
+    }
+
+    /**
+     * Add a team's spans to their series
+     */
+    public void record(UUID teamId, List<SpanRow> spans) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        List<Dimension> dimensions = teamDimensions.computeIfAbsent(teamId, this::dimensionsOf);
+        for (SpanRow span : spans) {
+            long minute = Math.floorDiv(span.getStartTimeNanos(), 60_000_000_000L) * 60;
+            String[] values = new String[dimensions.size()];
+            for (int i = 0; i < values.length; i++) {
+                String value = dimensions.get(i).extractor().apply(span);
+                values[i] = value != null ? value : "";
+            }
+            SeriesKey key = new SeriesKey(teamId, minute, orEmpty(span.getServiceName()), orEmpty(span.getSpanKind()),
+                    span.isRoot(), List.of(values));
+            while (!seriesFor(key, values.length).add(span)) {
+                // The series was flushed between lookup and update; retry on its successor
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "enabled", properties.isEnabled(),
+                "openSeries", series.size(),
+                "flushedRows", flushedRows.get(),
+                "droppedRows", droppedRows.get(),
+                "overflowSpans", overflowSpans.get()
+        );
+    }
+
+    private Series seriesFor(SeriesKey key, int dimensionCount) {
+        Series existing = series.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        AtomicInteger count = seriesPerTeamMinute.computeIfAbsent(
+                new TeamMinute(key.teamId(), key.minute()), k -> new AtomicInteger());
+        if (count.get() >= properties.getMaxSeriesPerTeam()) {
+            overflowSpans.incrementAndGet();
+            String[] overflow = new String[dimensionCount];
+            Arrays.fill(overflow, OVERFLOW);
+            key = new SeriesKey(key.teamId(), key.minute(), key.serviceName(), key.spanKind(), key.root(),
+                    List.of(overflow));
+        }
+        return series.computeIfAbsent(key, k -> {
+            count.incrementAndGet();
+            return new Series();
+        });
+    }
+
+    /**
+     * Write out every series and start new ones
+     */
+    void flush() {
+        List<SpanMetricRow> rows = new ArrayList<>();
+        for (Map.Entry<SeriesKey, Series> entry : series.entrySet()) {
+            SpanMetricRow row = entry.getValue().seal(entry.getKey(), teamDimensions.get(entry.getKey().teamId()));
+            series.remove(entry.getKey(), entry.getValue());
+            if (row != null) {
+                rows.add(row);
+            }
+        }
+        seriesPerTeamMinute.clear();
+        if (rows.isEmpty()) {
+            return;
+        }
+        try {
+            repository.batchInsert(rows);
+            flushedRows.addAndGet(rows.size());
+        } catch (RuntimeException e) {
+            droppedRows.addAndGet(rows.size());
+            log.warn("Dropping {} span metric rows: {}", rows.size(), e.getMessage());
+        }
+    }
+
+    private List<Dimension> dimensionsOf(UUID teamId) {
+        List<String> names = properties.getDimensions();
+        for (Map.Entry<Long, List<String>> entry : properties.getTeams().entrySet()) {
+            if (convertTeamIdToUuid(entry.getKey()).equals(teamId)) {
+                names = entry.getValue();
+            }
+        }
+        List<Dimension> dimensions = new ArrayList<>();
+        for (String name : names) {
+            Function<SpanRow, String> extractor = switch (name) {
+                case "operation_name" -> SpanRow::getOperationName;
+                case "http_method" -> SpanRow::getHttpMethod;
+                case "http_route" -> SpanRow::getHttpRoute;
+                case "http_status_code" -> span -> span.getHttpStatusCode() != 0
+                        ? Integer.toString(span.getHttpStatusCode()) : "";
+                case "status" -> SpanRow::getStatus;
+                case "host" -> SpanRow::getHost;
+                case "pod" -> SpanRow::getPod;
+                case "container" -> SpanRow::getContainer;
+                default -> {
+                    if (!name.startsWith("attributes.")) {
+                        log.warn("Ignoring unknown span metrics dimension '{}'", name);
+                        yield null;
+                    }
+                    String attribute = name.substring("attributes.".length());
+                    yield span -> span.getAttributes().getOrDefault(attribute, "");
+                }
+            };
+            if (extractor != null) {
+                dimensions.add(new Dimension(name, extractor));
+            }
+        }
+        return List.copyOf(dimensions);
+    }
+
+    private static String orEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static UUID convertTeamIdToUuid(Long teamId) {
+        return UUID.fromString(String.format("00000000-0000-0000-0000-%012d", teamId));
+    }
+
+    private record Dimension(String name, Function<SpanRow, String> extractor) {}
+
+    private record SeriesKey(UUID teamId, long minute, String serviceName, String spanKind, boolean root,
+            List<String> values) {}
+
+    private record TeamMinute(UUID teamId, long minute) {}
+
+    /**
+     * Mutable aggregate of one series; sealed once flushed so late writers move to a fresh one
+     */
+    private static final class Series {
+        private final long[] buckets = new long[LatencyHistogram.BUCKETS];
+        private long count;
+        private long errors;
+        private long durationSum;
+        private long durationMax;
+        private boolean sealed;
+
+        synchronized boolean add(SpanRow span) {
+            if (sealed) {
+                return false;
+            }
+            count++;
+            if ("ERROR".equals(span.getStatus())) {
+                errors++;
+            }
+            durationSum += span.getDurationMs();
+            durationMax = Math.max(durationMax, span.getDurationMs());
+            buckets[LatencyHistogram.bucketOf(span.getDurationMs())]++;
+            return true;
+        }
+
+        synchronized SpanMetricRow seal(SeriesKey key, List<Dimension> dimensions) {
+            sealed = true;
+            if (count == 0) {
+                return null;
+            }
+            SpanMetricRow row = new SpanMetricRow();
+            row.setTeamId(key.teamId());
+            row.setMinuteEpochSeconds(key.minute());
+            row.setServiceName(key.serviceName());
+            row.setSpanKind(key.spanKind());
+            row.setRoot(key.root());
+            Map<String, String> values = new LinkedHashMap<>();
+            for (int i = 0; i < key.values().size(); i++) {
+                values.put(dimensions.get(i).name(), key.values().get(i));
+            }
+            row.setDimensions(values);
+            row.setSpanCount(count);
+            row.setErrorCount(errors);
+            row.setDurationSumMs(durationSum);
+            row.setDurationMaxMs(durationMax);
+            row.setLatencyBuckets(buckets.clone());
+            return row;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.observability.service.ingestion;
+
+import com.observability.config.TailSamplingProperties.Policy;
+import com.observability.repository.clickhouse.SpanRow;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Tail-based trace sampler in front of the span buffer.
+ * <p>
+ * Spans are held per (team, trace_id) until the decision window has passed since the trace's
+ * first span. A trace is then kept if any span errored or exceeded the latency threshold for its
+ * service/operation, otherwise kept with the team's sample percentage (hashed on trace_id, so
+ * every instance makes the same call). Probabilistically kept spans carry a sample_weight of
+ * 1/rate so metrics summed over sample_weight still count the dropped traces. Decisions are
+ * remembered for a while to route late spans the same way.
+ * <p>
+ * Held spans are not yet in the write-ahead log, so a crash loses at most one decision window.
+ * They have already been acknowledged, though, so kept traces are released to the buffer through
+ * a path that waits for room rather than one that rejects.
+ */
+@Slf4j
+public class TailSampler implements AutoCloseable {
+
+    private final long decisionWindowNanos;
+    private final int maxPendingTraces;
+    private final Function<UUID, Policy> policies;
+    private final BiConsumer<UUID, List<SpanRow>> sink;
+    private final BiConsumer<UUID, List<SpanRow>> release;
+
+    private final ConcurrentHashMap<TraceKey, PendingTrace> pending = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<TraceKey> arrivalOrder = new ConcurrentLinkedQueue<>();
+    private final ConcurrentHashMap<TraceKey, Decision> decisions = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<TraceKey> decisionOrder = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong keptTraces = new AtomicLong();
+    private final AtomicLong droppedTraces = new AtomicLong();
+    private final AtomicLong keptSpans = new AtomicLong();
+    private final AtomicLong droppedSpans = new AtomicLong();
+
+    private final Thread decider;
+    private volatile boolean running = true;
+
+    /**
+     * @param sink takes late spans of kept traces on the offering thread, and may reject them
+     * @param release takes the spans of traces kept on the decider thread; they were acknowledged
+     *                when offered, so it must not reject them
+     */
+    public TailSampler(long decisionWindowMs, int maxPendingTraces, Function<UUID, Policy> policies,
+            BiConsumer<UUID, List<SpanRow>> sink, BiConsumer<UUID, List<SpanRow>> release) {
+        this.decisionWindowNanos = TimeUnit.MILLISECONDS.toNanos(decisionWindowMs);
+        this.maxPendingTraces = maxPendingTraces;
+        this.policies = policies;
+        this.sink = sink;
+        this.release = release;
+        this.decider = new Thread(this::runDecider, "ingest-tail-sampler");
+        this.decider.setDaemon(true);
+        this.decider.start();
+    }
+
+    /**
+     * Hold a team's spans until their traces are decided. Spans of already decided traces
+     * are forwarded (or dropped) immediately.
+     */
+    public void offer(UUID teamId, List<SpanRow> spans) {
+        List<SpanRow> late = new ArrayList<>();
+        long now = System.nanoTime();
+        for (SpanRow span : spans) {
+            TraceKey key = new TraceKey(teamId, span.getTraceId());
+            pending.compute(key, (k, trace) -> {
+                if (trace == null) {
+                    Decision decision = decisions.get(k);
+                    if (decision != null) {
+                        if (decision.weight() > 0) {
+                            span.setSampleWeight(decision.weight());
+                            late.add(span);
+                        } else {
+                            droppedSpans.incrementAndGet();
+                        }
+                        return null;
+                    }
+                    trace = new PendingTrace(now);
+                    arrivalOrder.add(k);
+                }
+                trace.spans.add(span);
+                return trace;
+            });
+        }
+        if (!late.isEmpty()) {
+            keptSpans.addAndGet(late.size());
+            sink.accept(teamId, late);
+        }
+    }
+
+    public int getPendingTraces() {
+        return pending.size();
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "pendingTraces", pending.size(),
+                "keptTraces", keptTraces.get(),
+                "droppedTraces", droppedTraces.get(),
+                "keptSpans", keptSpans.get(),
+                "droppedSpans", droppedSpans.get()
+        );
+    }
+
+    /**
+     * Stop the decider and decide every held trace now
+     */
+    @Override
+    public void close() {
+        running = false;
+        decider.interrupt();
+        try {
+            decider.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        decideDue(Long.MAX_VALUE / 2);
+    }
+
+    private void runDecider() {
+        long tickMs = Math.max(10, TimeUnit.NANOSECONDS.toMillis(decisionWindowNanos) / 10);
+        while (running) {
+            try {
+                Thread.sleep(tickMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                long now = System.nanoTime();
+                decideDue(now);
+                expireDecisions(now);
+            } catch (RuntimeException e) {
+                log.error("Tail sampling decision pass failed: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Decide traces whose window has elapsed, plus the oldest ones while over the memory bound
+     */
+    private void decideDue(long now) {
+        TraceKey key;
+        while ((key = arrivalOrder.peek()) != null) {
+            PendingTrace trace = pending.get(key);
+            if (trace != null && now - trace.firstSeen < decisionWindowNanos && pending.size() <= maxPendingTraces) {
+                return;
+            }
+            arrivalOrder.poll();
+            if (trace == null) {
+                continue;
+            }
+            List<SpanRow> kept = new ArrayList<>();
+            pending.compute(key, (k, held) -> {
+                if (held != null) {
+                    int weight = decide(k, held.spans);
+                    decisions.put(k, new Decision(weight, now + 2 * decisionWindowNanos));
+                    decisionOrder.add(k);
+                    if (weight > 0) {
+                        held.spans.forEach(span -> span.setSampleWeight(weight));
+                        kept.addAll(held.spans);
+                    } else {
+                        droppedSpans.addAndGet(held.spans.size());
+                    }
+                }
+                return null;
+            });
+            if (!kept.isEmpty()) {
+                keptSpans.addAndGet(kept.size());
+                try {
+                    release.accept(key.teamId(), kept);
+                } catch (RuntimeException e) {
+                    log.error("Lost {} sampled spans of team {}: {}", kept.size(), key.teamId(), e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return sample weight to keep the trace with, or 0 to drop it
+     */
+    private int decide(TraceKey key, List<SpanRow> spans) {
+        Policy policy = policies.apply(key.teamId());
+        for (SpanRow span : spans) {
+            if ("ERROR".equals(span.getStatus()) || span.getDurationMs() >= latencyThreshold(policy, span)) {
+                keptTraces.incrementAndGet();
+                return 1;
+            }
+        }
+        double percent = Math.min(100.0, Math.max(0.0, policy.getSamplePercent()));
+        if (percent > 0 && bucketOf(key.traceId()) < percent * 100) {
+            keptTraces.incrementAndGet();
+            return (int) Math.max(1, Math.round(100.0 / percent));
+        }
+        droppedTraces.incrementAndGet();
+        return 0;
+    }
+
+    private static long latencyThreshold(Policy policy, SpanRow span) {
+        Map<String, Long> thresholds = policy.getLatencyThresholds();
+        if (!thresholds.isEmpty()) {
+            Long threshold = thresholds.get(span.getServiceName() + ":" + span.getOperationName());
+            if (threshold == null) {
+                threshold = thresholds.get(span.getServiceName());
+            }
+            if (threshold != null) {
+                return threshold;
+            }
+        }
+        return policy.getLatencyThresholdMs();
+    }
+
+    /**
+     * Stable bucket in [0, 10000) for a trace id, identical on every instance
+     */
+    private static int bucketOf(String traceId) {
+        long h = traceId.hashCode() * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) Math.floorMod(h, 10_000L);
+    }
+
+    private void expireDecisions(long now) {
+        TraceKey key;
+        while ((key = decisionOrder.peek()) != null) {
+            Decision decision = decisions.get(key);
+            if (decision != null && decision.expiresAt() > now) {
+                return;
+            }
+            decisionOrder.poll();
+            if (decision != null) {
+                decisions.remove(key, decision);
+            }
+        }
+    }
+
+    private record TraceKey(UUID teamId, String traceId) {}
+
+    private record Decision(int weight, long expiresAt) {}
+
+    private static final class PendingTrace {
+        private final long firstSeen;
+        private final List<SpanRow> spans = new ArrayList<>();
+
+        PendingTrace(long firstSeen) {
+            this.firstSeen = firstSeen;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.observability.service.ingestion;
+
+import com.observability.repository.clickhouse.LogRow;
+import com.observability.repository.clickhouse.SpanRow;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fills in missing span/log times and drops rows whose timestamps are too far from now.
+ * <p>
+ * A span missing its end time gets start + duration, a span missing its duration gets it from
+ * end - start, and a row without any time is stamped with the arrival time. Rows dated further
+ * in the future than the allowed clock skew, older than the maximum age, or ending before they
+ * start are rejected, since they would land in the wrong partitions and distort every query
+ * over them.
+ */
+public class TimestampNormalizer {
+
+    private final long maxFutureSkewNanos;
+    private final long maxAgeNanos;
+
+    private final AtomicLong rejectedSpans = new AtomicLong();
+    private final AtomicLong rejectedLogs = new AtomicLong();
+    private final AtomicLong derivedDurations = new AtomicLong();
+
+    public TimestampNormalizer(long maxFutureSkewSeconds, long maxAgeHours) {
+        this.maxFutureSkewNanos = TimeUnit.SECONDS.toNanos(maxFutureSkewSeconds);
+        this.maxAgeNanos = TimeUnit.HOURS.toNanos(maxAgeHours);
+    }
+
+    /**
+     * Normalize span times in place
+     * @return the spans that passed the skew check (the same list if all did)
+     */
+    public List<SpanRow> spans(List<SpanRow> spans) {
+        long now = System.currentTimeMillis() * 1_000_000L;
+        List<SpanRow> accepted = null;
+        for (int i = 0; i < spans.size(); i++) {
+            SpanRow span = spans.get(i);
+            boolean valid = normalize(span, now);
+            if (!valid && accepted == null) {
+                accepted = new ArrayList<>(spans.subList(0, i));
+            } else if (valid && accepted != null) {
+                accepted.add(span);
+            }
+        }
+        if (accepted == null) {
+            return spans;
+        }
+        rejectedSpans.addAndGet(spans.size() - accepted.size());
+        return accepted;
+    }
+
+    /**
+     * Normalize log times in place
+     * @return the logs that passed the skew check (the same list if all did)
+     */
+    public List<LogRow> logs(List<LogRow> logs) {
+        long now = System.currentTimeMillis() * 1_000_000L;
+        List<LogRow> accepted = null;
+        for (int i = 0; i < logs.size(); i++) {
+            LogRow log = logs.get(i);
+            if (log.getTimestampNanos() == 0) {
+                log.setTimestampNanos(now);
+            }
+            boolean valid = withinBounds(log.getTimestampNanos(), now);
+            if (!valid && accepted == null) {
+                accepted = new ArrayList<>(logs.subList(0, i));
+            } else if (valid && accepted != null) {
+                accepted.add(log);
+            }
+        }
+        if (accepted == null) {
+            return logs;
+        }
+        rejectedLogs.addAndGet(logs.size() - accepted.size());
+        return accepted;
+    }
+
+    public Map<String, Object> getStats() {
+        return Map.of(
+                "rejectedSpans", rejectedSpans.get(),
+                "rejectedLogs", rejectedLogs.get(),
+                "derivedDurations", derivedDurations.get()
+        );
+    }
+
+    private boolean normalize(SpanRow span, long now) {
+        long start = span.getStartTimeNanos();
+        long end = span.getEndTimeNanos();
+        long durationNanos = span.getDurationMs() * 1_000_000L;
+        if (start == 0) {
+            start = end != 0 ? end - durationNanos : now;
+            span.setStartTimeNanos(start);
+        }
+        if (end == 0) {
+            end = start + durationNanos;
+            span.setEndTimeNanos(end);
+        } else if (span.getDurationMs() == 0 && end > start) {
+            span.setDurationMs((end - start) / 1_000_000L);
+            derivedDurations.incrementAndGet();
+        }
+        return end >= start && withinBounds(start, now) && withinBounds(end, now);
+    }
+
+    private boolean withinBounds(long epochNanos, long now) {
+        return epochNanos <= now + maxFutureSkewNanos && epochNanos >= now - maxAgeNanos;
+    }
+}
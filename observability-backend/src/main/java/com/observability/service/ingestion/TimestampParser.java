@@ -0,0 +1,238 @@
+package com.observability.service.ingestion;
+
+/**
+ * Normalizes ingested timestamps into epoch nanoseconds.
+ * Accepts epoch seconds/millis/micros/nanos (unit inferred from magnitude), decimal epoch seconds
+ * and ISO-8601 strings ({@code 2024-01-15T10:30:00.123456789Z}, a space instead of {@code T},
+ * {@code +-hh:mm} / {@code +-hhmm} / {@code +-hh} offsets, or no zone meaning UTC).
+ * <p>
+ * Parsing works directly on the characters rather than building an {@code OffsetDateTime} or
+ * intermediate strings; {@code TimestampParserBenchmark} measures its cost.
+ */
+public final class TimestampParser {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    private static final long SECONDS_PER_DAY = 86_400L;
+
+    private TimestampParser() {
+    }
+
+    /**
+     * Parse a textual timestamp from a character buffer, such as a JSON parser's text buffer,
+     * returning 0 when the value is blank
+     * @throws IllegalArgumentException if the value is not a recognized timestamp
+     */
+    public static long parseNanos(char[] value, int offset, int length) {
+        int start = offset;
+        int end = offset + length;
+        while (start < end && value[start] <= ' ') {
+            start++;
+        }
+        while (end > start && value[end - 1] <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return 0L;
+        }
+        try {
+            // A date always has '-' at index 4; epochs never do
+            if (end - start > 4 && value[start + 4] == '-') {
+                return parseIso(value, start, end);
+            }
+            return parseEpoch(value, start, end);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid timestamp '" + new String(value, offset, length) + "'");
+        }
+    }
+
+    /**
+     * Convert an epoch value of unknown unit to nanoseconds.
+     * Values up to 11 digits are seconds, up to 14 millis, up to 17 micros, anything larger nanos.
+     */
+    public static long epochToNanos(long epoch) {
+        if (epoch <= 0) {
+            return 0L;
+        }
+        if (epoch < 100_000_000_000L) {
+            return epoch * NANOS_PER_SECOND;
+        }
+        if (epoch < 100_000_000_000_000L) {
+            return epoch * 1_000_000L;
+        }
+        if (epoch < 100_000_000_000_000_000L) {
+            return epoch * 1_000L;
+        }
+        return epoch;
+    }
+
+    /**
+     * Integer epoch of inferred unit, or decimal epoch seconds such as {@code 1705314600.25}
+     */
+    private static long parseEpoch(char[] value, int start, int end) {
+        long whole = 0;
+        int i = start;
+        for (; i < end && value[i] != '.'; i++) {
+            int digit = value[i] - '0';
+            if (digit < 0 || digit > 9 || i - start >= 19) {
+                throw invalid();
+            }
+            whole = whole * 10 + digit;
+        }
+        if (i == start) {
+            throw invalid();
+        }
+        if (i == end) {
+            return epochToNanos(whole);
+        }
+        if (whole >= 100_000_000_000L) {
+            throw invalid();
+        }
+        return whole * NANOS_PER_SECOND + parseFraction(value, i + 1, end);
+    }
+
+    private static long parseIso(char[] value, int start, int end) {
+        // yyyy-MM-dd
+        if (end - start < 10 || value[start + 7] != '-') {
+            throw invalid();
+        }
+        int year = digits(value, start, 4);
+        int month = digits(value, start + 5, 2);
+        int day = digits(value, start + 8, 2);
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) {
+            throw invalid();
+        }
+        long seconds = epochDay(year, month, day) * SECONDS_PER_DAY;
+        int i = start + 10;
+        if (i == end) {
+            return seconds * NANOS_PER_SECOND;
+        }
+
+        // [T ]HH:mm[:ss[.fraction]]
+        char separator = value[i];
+        if ((separator != 'T' && separator != 't' && separator != ' ') || end - i < 6 || value[i + 3] != ':') {
+            throw invalid();
+        }
+        int hour = digits(value, i + 1, 2);
+        int minute = digits(value, i + 4, 2);
+        int second = 0;
+        i += 6;
+        if (i < end && value[i] == ':') {
+            if (end - i < 3) {
+                throw invalid();
+            }
+            second = digits(value, i + 1, 2);
+            i += 3;
+        }
+        if (hour > 23 || minute > 59 || second > 59) {
+            throw invalid();
+        }
+        long fraction = 0;
+        if (i < end && (value[i] == '.' || value[i] == ',')) {
+            int fractionEnd = i + 1;
+            while (fractionEnd < end && isDigit(value[fractionEnd])) {
+                fractionEnd++;
+            }
+            fraction = parseFraction(value, i + 1, fractionEnd);
+            i = fractionEnd;
+        }
+        seconds += hour * 3600L + minute * 60L + second;
+
+        // [Z|+-HH[:mm]|+-HHmm], absent means UTC
+        if (i < end) {
+            char zone = value[i];
+            if (zone == 'Z' || zone == 'z') {
+                i++;
+            } else if (zone == '+' || zone == '-') {
+                int remaining = end - i - 1;
+                int offsetHours = remaining >= 2 ? digits(value, i + 1, 2) : -1;
+                int offsetMinutes = 0;
+                if (remaining == 5 && value[i + 3] == ':') {
+                    offsetMinutes = digits(value, i + 4, 2);
+                } else if (remaining == 4) {
+                    offsetMinutes = digits(value, i + 3, 2);
+                } else if (remaining != 2) {
+                    throw invalid();
+                }
+                if (offsetHours < 0 || offsetHours > 18 || offsetMinutes > 59) {
+                    throw invalid();
+                }
+                int offsetSeconds = offsetHours * 3600 + offsetMinutes * 60;
+                seconds -= zone == '+' ? offsetSeconds : -offsetSeconds;
+                i = end;
+            }
+            if (i != end) {
+                throw invalid();
+            }
+        }
+        return seconds * NANOS_PER_SECOND + fraction;
+    }
+
+    /**
+     * Digits after a decimal point as nanoseconds; digits beyond the ninth are truncated
+     */
+    private static long parseFraction(char[] value, int start, int end) {
+        if (start == end) {
+            throw invalid();
+        }
+        long nanos = 0;
+        for (int i = start; i < start + 9; i++) {
+            nanos *= 10;
+            if (i < end) {
+                char c = value[i];
+                if (!isDigit(c)) {
+                    throw invalid();
+                }
+                nanos += c - '0';
+            }
+        }
+        for (int i = start + 9; i < end; i++) {
+            if (!isDigit(value[i])) {
+                throw invalid();
+            }
+        }
+        return nanos;
+    }
+
+    private static int digits(char[] value, int start, int count) {
+        int result = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = value[i];
+            if (!isDigit(c)) {
+                throw invalid();
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date (Hinnant's days_from_civil)
+     */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /**
+     * Failure inside a parse; {@link #parseNanos} rethrows it with the offending value
+     */
+    private static IllegalArgumentException invalid() {
+        return new IllegalArgumentException();
+    }
+}
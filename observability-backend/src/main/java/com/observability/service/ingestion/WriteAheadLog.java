@@ -0,0 +1,399 @@
+package com.observability.service.ingestion;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Segmented, memory-mapped write-ahead log of encoded ingestion batches.
+ * <p>
+ * Records are laid out as {@code [length][rows][crc32c][payload]} inside fixed-size segment files
+ * named after their base offset, so every record has a stable logical offset. Appends only copy
+ * into the mapped segment; a background thread forces dirty pages to disk and wakes every writer
+ * covered by that sync (group commit). Consumers advance a persisted checkpoint once a range has
+ * reached ClickHouse, and segments entirely below it are deleted. On open, records past the
+ * checkpoint are recovered up to the first torn or corrupt record.
+ */
+@Slf4j
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final int HEADER_BYTES = 12;
+    private static final String SEGMENT_SUFFIX = ".wal";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final String name;
+    private final Path directory;
+    private final int segmentBytes;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition syncRequested = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private long writeOffset;
+    private long durableOffset;
+    private volatile long checkpointOffset;
+    private volatile boolean open = true;
+    private final Thread syncer;
+
+    private WriteAheadLog(String name, Path directory, int segmentBytes, long maxBytes) {
+        this.name = name;
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxBytes = maxBytes;
+        this.syncer = new Thread(this::runSyncer, "ingest-wal-sync-" + name);
+        this.syncer.setDaemon(true);
+    }
+
+    /**
+     * Open (or create) the log in the given directory and recover any records past the checkpoint
+     */
+    public static WriteAheadLog open(String name, Path directory, int segmentBytes, long maxBytes) throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(name, directory, segmentBytes, maxBytes);
+        wal.recover();
+        wal.syncer.start();
+        return wal;
+    }
+
+    /**
+     * Append one encoded batch. The record is visible to readers immediately but only durable
+     * once {@link #awaitDurable} returns for the returned offset.
+     * @return offset just past the record, or -1 if the log has reached its size limit
+     */
+    public long append(byte[] payload, int length, int rows) throws IOException {
+        int recordBytes = HEADER_BYTES + length;
+        CRC32C crc = new CRC32C();
+        crc.update(payload, 0, length);
+
+        lock.lock();
+        try {
+            if (!open) {
+                throw new IOException("Write-ahead log " + name + " is closed");
+            }
+            if (writeOffset + recordBytes - checkpointOffset > maxBytes) {
+                return -1;
+            }
+            if (writeOffset - active.base + recordBytes > active.size) {
+                roll(recordBytes);
+            }
+            int position = (int) (writeOffset - active.base);
+            MappedByteBuffer buffer = active.buffer;
+            buffer.put(position + HEADER_BYTES, payload, 0, length);
+            buffer.putInt(position + 4, rows);
+            buffer.putInt(position + 8, (int) crc.getValue());
+            // Length goes last: a zero length marks the end of the log
+            buffer.putInt(position, length);
+            writeOffset += recordBytes;
+            syncRequested.signal();
+            return writeOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until everything up to the given offset has been forced to disk
+     */
+    public void awaitDurable(long offset) throws InterruptedException {
+        lock.lock();
+        try {
+            while (durableOffset < offset && open) {
+                synced.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Read records starting at the given offset until at least {@code maxRows} rows are collected
+     * or the end of the log is reached. Payloads are read-only views of the mapped segments.
+     */
+    public Records read(long from, int maxRows) {
+        List<ByteBuffer> payloads = new ArrayList<>();
+        int rows = 0;
+        lock.lock();
+        try {
+            long offset = Math.max(from, segments.isEmpty() ? from : segments.firstKey());
+            while (offset < writeOffset && rows < maxRows) {
+                Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+                if (entry == null) {
+                    break;
+                }
+                Segment segment = entry.getValue();
+                int position = (int) (offset - segment.base);
+                int length = position + HEADER_BYTES <= segment.size ? segment.buffer.getInt(position) : 0;
+                if (length == 0) {
+                    offset = segment.base + segment.size;
+                    continue;
+                }
+                rows += segment.buffer.getInt(position + 4);
+                payloads.add(segment.buffer.slice(position + HEADER_BYTES, length).asReadOnlyBuffer());
+                offset += HEADER_BYTES + length;
+            }
+            return new Records(payloads, rows, Math.min(offset, writeOffset));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark everything below the given offset as delivered and delete fully delivered segments
+     */
+    public void checkpoint(long offset) throws IOException {
+        if (offset <= checkpointOffset) {
+            return;
+        }
+        // The new checkpoint must be durable before segments behind it are deleted, or a power
+        // loss could roll it back and replay delivered rows
+        Path tmp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer value = ByteBuffer.allocate(Long.BYTES).putLong(0, offset);
+            while (value.hasRemaining()) {
+                channel.write(value);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, directory.resolve(CHECKPOINT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        checkpointOffset = offset;
+
+        List<Segment> delivered = new ArrayList<>();
+        lock.lock();
+        try {
+            while (!segments.isEmpty()) {
+                Segment oldest = segments.firstEntry().getValue();
+                if (oldest == active || oldest.base + oldest.size > offset) {
+                    break;
+                }
+                segments.pollFirstEntry();
+                delivered.add(oldest);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Segment segment : delivered) {
+            segment.channel.close();
+            Files.deleteIfExists(segment.path);
+            log.debug("Deleted delivered WAL segment {}", segment.path);
+        }
+    }
+
+    public long getCheckpointOffset() {
+        return checkpointOffset;
+    }
+
+    public long getEndOffset() {
+        lock.lock();
+        try {
+            return writeOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes appended but not yet checkpointed
+     */
+    public long getBacklogBytes() {
+        return Math.max(0L, getEndOffset() - checkpointOffset);
+    }
+
+    public int getSegmentCount() {
+        lock.lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            open = false;
+            syncRequested.signal();
+            synced.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            syncer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.lock();
+        try {
+            active.buffer.force();
+            for (Segment segment : segments.values()) {
+                segment.channel.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runSyncer() {
+        while (true) {
+            Segment segment;
+            long target;
+            lock.lock();
+            try {
+                while (open && durableOffset == writeOffset) {
+                    syncRequested.await();
+                }
+                if (!open) {
+                    return;
+                }
+                segment = active;
+                target = writeOffset;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+
+            segment.buffer.force();
+
+            lock.lock();
+            try {
+                durableOffset = Math.max(durableOffset, target);
+                synced.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Seal the active segment and start a new one large enough for the next record
+     */
+    private void roll(int recordBytes) throws IOException {
+        active.buffer.force();
+        long base = active.base + active.size;
+        active = createSegment(base, Math.max(segmentBytes, recordBytes + Integer.BYTES));
+        writeOffset = base;
+        durableOffset = Math.max(durableOffset, base);
+    }
+
+    /**
+     * Force the directory entry changes (renames, new files) to disk. Platforms that cannot open
+     * a directory as a channel do not need it.
+     */
+    private void syncDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            log.debug("Cannot open WAL directory {} for sync: {}", directory, e.getMessage());
+            return;
+        }
+        try (channel) {
+            channel.force(true);
+        }
+    }
+
+    private Segment createSegment(long base, int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(base, size, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+        segments.put(base, segment);
+        return segment;
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path checkpointPath = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointPath)) {
+            checkpointOffset = ByteBuffer.wrap(Files.readAllBytes(checkpointPath)).getLong();
+        }
+
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(p -> p.getFileName().toString().endsWith(SEGMENT_SUFFIX)).sorted().toList();
+        }
+
+        for (Path path : files) {
+            String fileName = path.getFileName().toString();
+            long base = Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            int size = (int) channel.size();
+            if (base + size <= checkpointOffset) {
+                channel.close();
+                Files.delete(path);
+                continue;
+            }
+            Segment segment = new Segment(base, size, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segments.put(base, segment);
+            writeOffset = base + validLength(segment);
+            active = segment;
+        }
+
+        if (active == null) {
+            active = createSegment(checkpointOffset, segmentBytes);
+            writeOffset = checkpointOffset;
+        }
+        durableOffset = writeOffset;
+        if (writeOffset > checkpointOffset) {
+            log.info("Recovered {} bytes of undelivered telemetry from WAL {}", writeOffset - checkpointOffset, name);
+        }
+    }
+
+    /**
+     * Length of the valid record prefix of a segment; anything after it is cleared so readers stop there
+     */
+    private static int validLength(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_BYTES <= segment.size) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + HEADER_BYTES + length > segment.size) {
+                break;
+            }
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.slice(position + HEADER_BYTES, length));
+            if ((int) crc.getValue() != buffer.getInt(position + 8)) {
+                log.warn("Discarding torn WAL record at offset {} in {}", segment.base + position, segment.path);
+                break;
+            }
+            position += HEADER_BYTES + length;
+        }
+        if (position + Integer.BYTES <= segment.size) {
+            buffer.putInt(position, 0);
+        }
+        return position;
+    }
+
+    /**
+     * A contiguous run of records read from the log
+     * @param nextOffset offset to checkpoint once the payloads have been delivered
+     */
+    public record Records(List<ByteBuffer> payloads, int rows, long nextOffset) {
+        public boolean isEmpty() {
+            return payloads.isEmpty();
+        }
+    }
+
+    private record Segment(long base, int size, Path path, FileChannel channel, MappedByteBuffer buffer) {}
+}
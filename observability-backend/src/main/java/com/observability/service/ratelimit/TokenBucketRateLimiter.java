@@ -0,0 +1,221 @@
+package com.observability.service.ratelimit;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process token-bucket rate limiter with periodic cluster-wide reconciliation.
+ * <p>
+ * Each key is a lock-free bucket (GCRA: one CAS on a theoretical arrival time), so the hot path
+ * never leaves the JVM. A background task reports each bucket's consumption to Redis with a Lua
+ * script that atomically increments the key's window counter, and debits the local bucket by
+ * whatever the other instances consumed in the same window. Cluster-wide limits are therefore
+ * enforced approximately, with a lag of one sync interval. If Redis is unreachable the limits
+ * are enforced per instance only.
+ * <p>
+ * Buckets are keyed by key and limit, so a changed limit starts a new bucket and the old one
+ * idles out.
+ */
+@Component
+@Slf4j
+@RequiredArgsConstructor
+public class TokenBucketRateLimiter {
+
+    private static final String KEY_PREFIX = "ratelimit:";
+
+    /**
+     * INCRBY the window counter by this instance's delta; set the expiry on first use
+     */
+    private static final RedisScript<Long> RECONCILE_SCRIPT = new DefaultRedisScript<>("""
+            local current = redis.call('INCRBY', KEYS[1], ARGV[1])
+            if redis.call('TTL', KEYS[1]) < 0 then
+                redis.call('EXPIRE', KEYS[1], ARGV[2])
+            end
+            return current
+            """, Long.class);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+
+    @Value("${rate-limit.sync-interval-ms:1000}")
+    private long syncIntervalMs;
+
+    private final Map<BucketKey, Bucket> buckets = new ConcurrentHashMap<>();
+    private ScheduledExecutorService reconciler;
+
+    @PostConstruct
+    void start() {
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "rate-limit-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void stop() {
+        reconciler.shutdownNow();
+    }
+
+    /**
+     * Take one permit from the key's bucket
+     * @return true if allowed
+     */
+    public boolean tryAcquire(String key, int maxRequests, int windowSeconds) {
+        return acquire(key, maxRequests, windowSeconds) == 0;
+    }
+
+    /**
+     * Take one permit from the key's bucket, which allows {@code maxRequests} per {@code windowSeconds}
+     * with bursts up to {@code maxRequests}
+     * @return 0 if allowed, otherwise nanoseconds until a permit becomes available
+     */
+    public long acquire(String key, int maxRequests, int windowSeconds) {
+        BucketKey id = new BucketKey(key, maxRequests, windowSeconds);
+        while (true) {
+            Bucket bucket = buckets.computeIfAbsent(id, Bucket::new);
+            long wait = bucket.acquire(System.nanoTime());
+            if (wait > 0 || !bucket.retired) {
+                return wait;
+            }
+            // The reconciler removed the bucket meanwhile; hand the permit back and use its replacement
+            bucket.unreported.decrementAndGet();
+        }
+    }
+
+    /**
+     * Number of buckets currently tracked
+     */
+    public int getBucketCount() {
+        return buckets.size();
+    }
+
+    private void reconcile() {
+        long now = System.nanoTime();
+        for (Bucket bucket : buckets.values()) {
+            try {
+                bucket.reconcile(now);
+            } catch (RuntimeException e) {
+                log.debug("Rate limit reconciliation for {} failed, enforcing locally: {}", bucket.id.key(), e.getMessage());
+            }
+            buckets.computeIfPresent(bucket.id, (id, current) -> current == bucket && bucket.retire(now) ? null : current);
+        }
+    }
+
+    private record BucketKey(String key, int maxRequests, int windowSeconds) {
+    }
+
+    private final class Bucket {
+        private final BucketKey id;
+        private final int maxRequests;
+        private final int windowSeconds;
+        private final long emissionIntervalNanos;
+        private final long burstNanos;
+
+        /** Theoretical arrival time of the next permit, in System.nanoTime() terms */
+        private final AtomicLong tat;
+        /** Permits taken locally and not yet reported to Redis */
+        private final AtomicLong unreported = new AtomicLong();
+        /** Set once the bucket is removed; permits taken from it afterwards are handed back */
+        private volatile boolean retired;
+
+        // Touched by the reconciler thread only
+        private long windowId = -1;
+        private long reportedInWindow;
+        private long remoteApplied;
+
+        Bucket(BucketKey id) {
+            this.id = id;
+            this.maxRequests = Math.max(1, id.maxRequests());
+            this.windowSeconds = Math.max(1, id.windowSeconds());
+            this.emissionIntervalNanos = TimeUnit.SECONDS.toNanos(this.windowSeconds) / this.maxRequests;
+            this.burstNanos = emissionIntervalNanos * this.maxRequests;
+            this.tat = new AtomicLong(System.nanoTime());
+        }
+
+        long acquire(long now) {
+            while (true) {
+                long current = tat.get();
+                long next = Math.max(current, now) + emissionIntervalNanos;
+                long excess = next - now - burstNanos;
+                if (excess > 0) {
+                    return excess;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    unreported.incrementAndGet();
+                    return 0;
+                }
+            }
+        }
+
+        void reconcile(long now) {
+            long window = System.currentTimeMillis() / 1000 / windowSeconds;
+            if (window != windowId) {
+                windowId = window;
+                reportedInWindow = 0;
+                remoteApplied = 0;
+            }
+            long delta = unreported.getAndSet(0);
+            Long global;
+            try {
+                global = redisTemplate.execute(RECONCILE_SCRIPT, new StringRedisSerializer(),
+                        new GenericToStringSerializer<>(Long.class),
+                        List.of(KEY_PREFIX + id.key() + ":" + maxRequests + "/" + windowSeconds + ":" + window),
+                        Long.toString(delta), Integer.toString(windowSeconds * 2));
+            } catch (RuntimeException e) {
+                unreported.addAndGet(delta);
+                throw e;
+            }
+            if (global == null) {
+                return;
+            }
+            reportedInWindow += delta;
+            long remote = global - reportedInWindow;
+            long debit = remote - remoteApplied;
+            if (debit > 0) {
+                long penalty = debit * emissionIntervalNanos;
+                // Never push the bucket further than fully drained
+                tat.accumulateAndGet(now, (current, t) -> Math.min(Math.max(current, t) + penalty, t + burstNanos));
+                remoteApplied = remote;
+            }
+        }
+
+        boolean isIdle(long now) {
+            return unreported.get() == 0 && now - tat.get() > 2 * burstNanos;
+        }
+
+        /**
+         * Mark an idle bucket retired, called under its map entry's lock. An acquire either
+         * counted its permit before the re-check below, which keeps the bucket, or sees the flag
+         * and hands the permit back.
+         */
+        boolean retire(long now) {
+            if (!isIdle(now)) {
+                return false;
+            }
+            retired = true;
+            if (unreported.get() == 0) {
+                return true;
+            }
+            retired = false;
+            return false;
+        }
+    }
+}
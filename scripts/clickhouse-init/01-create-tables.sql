@@ -28,6 +28,7 @@ CREATE TABLE IF NOT EXISTS observex.spans (
     -- HTTP attributes
     http_method LowCardinality(String),
     http_url String,
+    http_route LowCardinality(String) DEFAULT '',  -- http_url path templated at ingestion, e.g. /users/{id}
     http_status_code UInt16,
 
     -- Infrastructure
@@ -38,6 +39,9 @@ CREATE TABLE IF NOT EXISTS observex.spans (
     -- Flexible attributes
     attributes Map(String, String),
 
+    -- Number of spans this row stands for after tail sampling (1 = not sampled)
+    sample_weight UInt32 DEFAULT 1,
+
     -- Indexes for common queries
     INDEX idx_trace trace_id TYPE bloom_filter GRANULARITY 4,
     INDEX idx_service service_name TYPE bloom_filter GRANULARITY 4,
@@ -68,17 +72,42 @@ CREATE TABLE IF NOT EXISTS observex.logs (
     thread LowCardinality(String),
     exception String,
     attributes Map(String, String),
+    pattern_id UInt64 DEFAULT 0,  -- mined message template, 0 if none
+    pattern LowCardinality(String) DEFAULT '',
+    pattern_params Array(String),
 
     INDEX idx_level level TYPE set(5) GRANULARITY 4,
     INDEX idx_service service_name TYPE bloom_filter GRANULARITY 4,
     INDEX idx_trace trace_id TYPE bloom_filter GRANULARITY 4,
-    INDEX idx_message message TYPE tokenbf_v1(32768, 3, 0) GRANULARITY 4
+    INDEX idx_message message TYPE tokenbf_v1(32768, 3, 0) GRANULARITY 4,
+    INDEX idx_pattern pattern_id TYPE bloom_filter GRANULARITY 4
 ) ENGINE = MergeTree()
 PARTITION BY (toYYYYMMDD(timestamp), team_id)
 ORDER BY (team_id, timestamp, service_name)
 TTL timestamp + INTERVAL 14 DAY
 SETTINGS index_granularity = 8192;
 
+-- =============================================================================
+-- SPAN METRICS TABLE - RED metrics aggregated per minute at ingestion
+-- =============================================================================
+CREATE TABLE IF NOT EXISTS observex.span_metrics_1m (
+    team_id UUID,
+    timestamp DateTime,
+    service_name LowCardinality(String),
+    span_kind LowCardinality(String),
+    is_root UInt8,
+    dimensions Map(String, String),  -- configured dimension set, e.g. operation_name, http_method
+    span_count UInt64,
+    error_count UInt64,
+    duration_sum_ms UInt64,
+    duration_max_ms UInt64,
+    latency_buckets Array(UInt64)  -- log-scale histogram, merged with sumForEach
+) ENGINE = MergeTree()
+PARTITION BY (toYYYYMMDD(timestamp), team_id)
+ORDER BY (team_id, service_name, timestamp)
+TTL timestamp + INTERVAL 30 DAY
+SETTINGS index_granularity = 8192;
+
 -- =============================================================================
 -- INCIDENTS TABLE - Alert incidents
 -- =============================================================================
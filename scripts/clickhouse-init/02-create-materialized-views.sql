@@ -1,54 +1,203 @@
 -- Materialized Views for Pre-Aggregated Data
 -- Metrics are derived from spans (no separate metrics table needed)
+--
+-- Span metric rollups keep mergeable aggregate states rather than finished numbers, so rows of
+-- the same bucket combine correctly on merge and buckets can be re-aggregated over any range:
+-- read them with sumMerge / avgWeightedMerge / quantilesTDigestWeightedMerge / maxMerge.
+-- The state expressions are mirrored by ClickHouseSpansRepository, which merges rollup rows with
+-- states computed from raw spans for the partial buckets at either end of a queried range.
+-- Only the minute tables read spans; hourly tables are fed by merging minute states and daily
+-- tables by merging hourly ones. Coarser tiers are kept longer (minute 7 days, hour 90 days,
+-- day 13 months); RollupPlan mirrors these TTLs.
 
 -- =============================================================================
--- SERVICE METRICS - Per minute (derived from spans)
+-- SERVICE METRICS - Per minute, hour and day, root spans (derived from spans)
 -- =============================================================================
-CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1m
-ENGINE = SummingMergeTree()
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1m (
+    team_id UUID,
+    timestamp_minute DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
 PARTITION BY (toYYYYMMDD(timestamp_minute), team_id)
 ORDER BY (team_id, service_name, timestamp_minute)
-TTL timestamp_minute + INTERVAL 7 DAY
+TTL timestamp_minute + INTERVAL 7 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1m_mv
+TO observex.service_metrics_1m
 AS SELECT
     team_id,
     toStartOfMinute(start_time) AS timestamp_minute,
     service_name,
-    count() AS request_count,
-    countIf(status = 'ERROR') AS error_count,
-    avg(duration_ms) AS avg_latency,
-    quantile(0.50)(duration_ms) AS p50_latency,
-    quantile(0.90)(duration_ms) AS p90_latency,
-    quantile(0.95)(duration_ms) AS p95_latency,
-    quantile(0.99)(duration_ms) AS p99_latency,
-    max(duration_ms) AS max_latency
+    sumState(toUInt64(sample_weight)) AS request_count_state,
+    sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))) AS error_count_state,
+    avgWeightedState(duration_ms, sample_weight) AS latency_avg_state,
+    quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight) AS latency_quantiles_state,
+    maxState(duration_ms) AS latency_max_state
 FROM observex.spans
 WHERE is_root = 1
 GROUP BY team_id, timestamp_minute, service_name;
 
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1h (
+    team_id UUID,
+    timestamp_hour DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_hour), team_id)
+ORDER BY (team_id, service_name, timestamp_hour)
+TTL timestamp_hour + INTERVAL 90 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1h_mv
+TO observex.service_metrics_1h
+AS SELECT
+    team_id,
+    toStartOfHour(timestamp_minute) AS timestamp_hour,
+    service_name,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.service_metrics_1m
+GROUP BY team_id, timestamp_hour, service_name;
+
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1d (
+    team_id UUID,
+    timestamp_day DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_day), team_id)
+ORDER BY (team_id, service_name, timestamp_day)
+TTL timestamp_day + INTERVAL 13 MONTH;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1d_mv
+TO observex.service_metrics_1d
+AS SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.service_metrics_1h
+GROUP BY team_id, timestamp_day, service_name;
+
 -- =============================================================================
--- ENDPOINT METRICS - Per minute (derived from spans)
+-- ENDPOINT METRICS - Per minute, hour and day, server spans (derived from spans)
 -- =============================================================================
-CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1m
-ENGINE = SummingMergeTree()
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1m (
+    team_id UUID,
+    timestamp_minute DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
 PARTITION BY (toYYYYMMDD(timestamp_minute), team_id)
 ORDER BY (team_id, service_name, operation_name, http_method, timestamp_minute)
-TTL timestamp_minute + INTERVAL 7 DAY
+TTL timestamp_minute + INTERVAL 7 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1m_mv
+TO observex.endpoint_metrics_1m
 AS SELECT
     team_id,
     toStartOfMinute(start_time) AS timestamp_minute,
     service_name,
     operation_name,
     http_method,
-    count() AS request_count,
-    countIf(status = 'ERROR') AS error_count,
-    avg(duration_ms) AS avg_latency,
-    quantile(0.50)(duration_ms) AS p50_latency,
-    quantile(0.95)(duration_ms) AS p95_latency,
-    quantile(0.99)(duration_ms) AS p99_latency
+    sumState(toUInt64(sample_weight)) AS request_count_state,
+    sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))) AS error_count_state,
+    avgWeightedState(duration_ms, sample_weight) AS latency_avg_state,
+    quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight) AS latency_quantiles_state,
+    maxState(duration_ms) AS latency_max_state
 FROM observex.spans
 WHERE span_kind = 'SERVER'
 GROUP BY team_id, timestamp_minute, service_name, operation_name, http_method;
 
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1h (
+    team_id UUID,
+    timestamp_hour DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_hour), team_id)
+ORDER BY (team_id, service_name, operation_name, http_method, timestamp_hour)
+TTL timestamp_hour + INTERVAL 90 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1h_mv
+TO observex.endpoint_metrics_1h
+AS SELECT
+    team_id,
+    toStartOfHour(timestamp_minute) AS timestamp_hour,
+    service_name,
+    operation_name,
+    http_method,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.endpoint_metrics_1m
+GROUP BY team_id, timestamp_hour, service_name, operation_name, http_method;
+
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1d (
+    team_id UUID,
+    timestamp_day DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_day), team_id)
+ORDER BY (team_id, service_name, operation_name, http_method, timestamp_day)
+TTL timestamp_day + INTERVAL 13 MONTH;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1d_mv
+TO observex.endpoint_metrics_1d
+AS SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    operation_name,
+    http_method,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.endpoint_metrics_1h
+GROUP BY team_id, timestamp_day, service_name, operation_name, http_method;
+
 -- =============================================================================
 -- LOG COUNTS - Per minute
 -- =============================================================================
@@ -0,0 +1,6 @@
+-- Migration: tail-sampling weight on spans
+-- Fresh installs already get the column from 01-create-tables.sql; this upgrades existing tables.
+-- Materialized views created before this migration keep counting raw rows until recreated
+-- from 02-create-materialized-views.sql.
+
+ALTER TABLE observex.spans ADD COLUMN IF NOT EXISTS sample_weight UInt32 DEFAULT 1 AFTER attributes;
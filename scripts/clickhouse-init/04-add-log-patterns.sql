@@ -0,0 +1,8 @@
+-- Migration: mined log templates
+-- Fresh installs already get these columns from 01-create-tables.sql; this upgrades existing tables.
+-- Rows ingested before the migration keep pattern_id 0.
+
+ALTER TABLE observex.logs ADD COLUMN IF NOT EXISTS pattern_id UInt64 DEFAULT 0 AFTER attributes;
+ALTER TABLE observex.logs ADD COLUMN IF NOT EXISTS pattern LowCardinality(String) DEFAULT '' AFTER pattern_id;
+ALTER TABLE observex.logs ADD COLUMN IF NOT EXISTS pattern_params Array(String) AFTER pattern;
+ALTER TABLE observex.logs ADD INDEX IF NOT EXISTS idx_pattern pattern_id TYPE bloom_filter GRANULARITY 4;
@@ -0,0 +1,21 @@
+-- Migration: ingest-time span metrics
+-- Fresh installs already get this table from 01-create-tables.sql; this creates it on existing installs.
+-- Rows are written by the ingestion span metrics aggregator, one per series, minute and flush.
+
+CREATE TABLE IF NOT EXISTS observex.span_metrics_1m (
+    team_id UUID,
+    timestamp DateTime,
+    service_name LowCardinality(String),
+    span_kind LowCardinality(String),
+    is_root UInt8,
+    dimensions Map(String, String),  -- configured dimension set, e.g. operation_name, http_method
+    span_count UInt64,
+    error_count UInt64,
+    duration_sum_ms UInt64,
+    duration_max_ms UInt64,
+    latency_buckets Array(UInt64)  -- log-scale histogram, merged with sumForEach
+) ENGINE = MergeTree()
+PARTITION BY (toYYYYMMDD(timestamp), team_id)
+ORDER BY (team_id, service_name, timestamp)
+TTL timestamp + INTERVAL 30 DAY
+SETTINGS index_granularity = 8192;
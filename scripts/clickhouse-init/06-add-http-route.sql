@@ -0,0 +1,5 @@
+-- Migration: templated HTTP route on spans
+-- Fresh installs already get the column from 01-create-tables.sql; this upgrades existing tables.
+-- Rows ingested before this migration keep an empty route and their raw operation names.
+
+ALTER TABLE observex.spans ADD COLUMN IF NOT EXISTS http_route LowCardinality(String) DEFAULT '' AFTER http_url;
@@ -0,0 +1,246 @@
+-- Migration: span metric rollups as aggregate states
+-- The service/endpoint minute views used to be SummingMergeTree over finished averages and
+-- quantiles, which merges into wrong numbers. They are replaced by AggregatingMergeTree tables:
+-- minute states fed from spans, hourly states merged from minutes and daily states merged from
+-- hours; see 02-create-materialized-views.sql. This script owns the whole rollup DDL.
+-- On fresh installs this only recreates the (empty) tables. On existing installs the old views
+-- and their data are dropped and the minute tier is backfilled from the spans still within TTL,
+-- which the cascade carries into the hourly and daily tiers. Spans ingested while this runs may
+-- be miscounted in the current minute; pause ingestion for exact totals. The script can be
+-- re-run, before or after 08: it drops every rollup view and table and starts from empty tables,
+-- so hourly and daily history older than the spans TTL is lost.
+
+DROP VIEW IF EXISTS observex.service_metrics_1m_mv;
+DROP VIEW IF EXISTS observex.service_metrics_1h_mv;
+DROP VIEW IF EXISTS observex.service_metrics_1d_mv;
+DROP VIEW IF EXISTS observex.endpoint_metrics_1m_mv;
+DROP VIEW IF EXISTS observex.endpoint_metrics_1h_mv;
+DROP VIEW IF EXISTS observex.endpoint_metrics_1d_mv;
+DROP TABLE IF EXISTS observex.service_metrics_1m;
+DROP TABLE IF EXISTS observex.service_metrics_1h;
+DROP TABLE IF EXISTS observex.service_metrics_1d;
+DROP TABLE IF EXISTS observex.endpoint_metrics_1m;
+DROP TABLE IF EXISTS observex.endpoint_metrics_1h;
+DROP TABLE IF EXISTS observex.endpoint_metrics_1d;
+
+-- =============================================================================
+-- SERVICE METRICS - Per minute from root spans, hourly and daily cascaded from it
+-- =============================================================================
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1m (
+    team_id UUID,
+    timestamp_minute DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMMDD(timestamp_minute), team_id)
+ORDER BY (team_id, service_name, timestamp_minute)
+TTL timestamp_minute + INTERVAL 7 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1m_mv
+TO observex.service_metrics_1m
+AS SELECT
+    team_id,
+    toStartOfMinute(start_time) AS timestamp_minute,
+    service_name,
+    sumState(toUInt64(sample_weight)) AS request_count_state,
+    sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))) AS error_count_state,
+    avgWeightedState(duration_ms, sample_weight) AS latency_avg_state,
+    quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight) AS latency_quantiles_state,
+    maxState(duration_ms) AS latency_max_state
+FROM observex.spans
+WHERE is_root = 1
+GROUP BY team_id, timestamp_minute, service_name;
+
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1h (
+    team_id UUID,
+    timestamp_hour DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_hour), team_id)
+ORDER BY (team_id, service_name, timestamp_hour)
+TTL timestamp_hour + INTERVAL 90 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1h_mv
+TO observex.service_metrics_1h
+AS SELECT
+    team_id,
+    toStartOfHour(timestamp_minute) AS timestamp_hour,
+    service_name,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.service_metrics_1m
+GROUP BY team_id, timestamp_hour, service_name;
+
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1d (
+    team_id UUID,
+    timestamp_day DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_day), team_id)
+ORDER BY (team_id, service_name, timestamp_day)
+TTL timestamp_day + INTERVAL 13 MONTH;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1d_mv
+TO observex.service_metrics_1d
+AS SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.service_metrics_1h
+GROUP BY team_id, timestamp_day, service_name;
+
+-- =============================================================================
+-- ENDPOINT METRICS - Per minute from server spans, hourly and daily cascaded from it
+-- =============================================================================
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1m (
+    team_id UUID,
+    timestamp_minute DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMMDD(timestamp_minute), team_id)
+ORDER BY (team_id, service_name, operation_name, http_method, timestamp_minute)
+TTL timestamp_minute + INTERVAL 7 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1m_mv
+TO observex.endpoint_metrics_1m
+AS SELECT
+    team_id,
+    toStartOfMinute(start_time) AS timestamp_minute,
+    service_name,
+    operation_name,
+    http_method,
+    sumState(toUInt64(sample_weight)) AS request_count_state,
+    sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))) AS error_count_state,
+    avgWeightedState(duration_ms, sample_weight) AS latency_avg_state,
+    quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight) AS latency_quantiles_state,
+    maxState(duration_ms) AS latency_max_state
+FROM observex.spans
+WHERE span_kind = 'SERVER'
+GROUP BY team_id, timestamp_minute, service_name, operation_name, http_method;
+
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1h (
+    team_id UUID,
+    timestamp_hour DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_hour), team_id)
+ORDER BY (team_id, service_name, operation_name, http_method, timestamp_hour)
+TTL timestamp_hour + INTERVAL 90 DAY;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1h_mv
+TO observex.endpoint_metrics_1h
+AS SELECT
+    team_id,
+    toStartOfHour(timestamp_minute) AS timestamp_hour,
+    service_name,
+    operation_name,
+    http_method,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.endpoint_metrics_1m
+GROUP BY team_id, timestamp_hour, service_name, operation_name, http_method;
+
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1d (
+    team_id UUID,
+    timestamp_day DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_day), team_id)
+ORDER BY (team_id, service_name, operation_name, http_method, timestamp_day)
+TTL timestamp_day + INTERVAL 13 MONTH;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1d_mv
+TO observex.endpoint_metrics_1d
+AS SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    operation_name,
+    http_method,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.endpoint_metrics_1h
+GROUP BY team_id, timestamp_day, service_name, operation_name, http_method;
+
+-- =============================================================================
+-- BACKFILL - Complete minutes from spans ingested before the views existed; the
+-- cascaded views carry them into the hourly and daily tiers
+-- =============================================================================
+INSERT INTO observex.service_metrics_1m
+SELECT
+    team_id,
+    toStartOfMinute(start_time) AS timestamp_minute,
+    service_name,
+    sumState(toUInt64(sample_weight)),
+    sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))),
+    avgWeightedState(duration_ms, sample_weight),
+    quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight),
+    maxState(duration_ms)
+FROM observex.spans
+WHERE is_root = 1 AND start_time < toStartOfMinute(now())
+GROUP BY team_id, timestamp_minute, service_name;
+
+INSERT INTO observex.endpoint_metrics_1m
+SELECT
+    team_id,
+    toStartOfMinute(start_time) AS timestamp_minute,
+    service_name,
+    operation_name,
+    http_method,
+    sumState(toUInt64(sample_weight)),
+    sumState(toUInt64(if(status = 'ERROR', sample_weight, 0))),
+    avgWeightedState(duration_ms, sample_weight),
+    quantilesTDigestWeightedState(0.5, 0.9, 0.95, 0.99)(duration_ms, sample_weight),
+    maxState(duration_ms)
+FROM observex.spans
+WHERE span_kind = 'SERVER' AND start_time < toStartOfMinute(now())
+GROUP BY team_id, timestamp_minute, service_name, operation_name, http_method;
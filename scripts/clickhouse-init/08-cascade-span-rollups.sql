@@ -0,0 +1,141 @@
+-- Migration: hourly and daily span metric tiers fed by cascaded merges
+-- For installs that ran an earlier 07-aggregating-span-rollups.sql, whose hourly rollups were
+-- computed from spans: they are now fed by merging minute states, and daily rollups (kept 13
+-- months) by merging hourly ones; see 02-create-materialized-views.sql. The current 07 already
+-- creates this cascade, so after it this script only rebuilds the daily tier from the hourly rows.
+-- The hourly view is recreated in place, so hourly data is kept. Daily tables are rebuilt from
+-- the hourly rows, so days older than the hourly TTL (90 days) start empty. Spans ingested while
+-- this runs may be miscounted in the current hour; pause ingestion for exact totals. The script
+-- can be re-run, and 07 can be re-run after it: each starts the tiers it owns from empty tables.
+
+DROP VIEW IF EXISTS observex.service_metrics_1h_mv;
+DROP VIEW IF EXISTS observex.endpoint_metrics_1h_mv;
+DROP TABLE IF EXISTS observex.service_metrics_1d;
+DROP TABLE IF EXISTS observex.endpoint_metrics_1d;
+
+-- =============================================================================
+-- SERVICE METRICS - Cascaded hourly and daily tiers
+-- =============================================================================
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1h_mv
+TO observex.service_metrics_1h
+AS SELECT
+    team_id,
+    toStartOfHour(timestamp_minute) AS timestamp_hour,
+    service_name,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.service_metrics_1m
+GROUP BY team_id, timestamp_hour, service_name;
+
+CREATE TABLE IF NOT EXISTS observex.service_metrics_1d (
+    team_id UUID,
+    timestamp_day DateTime,
+    service_name LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_day), team_id)
+ORDER BY (team_id, service_name, timestamp_day)
+TTL timestamp_day + INTERVAL 13 MONTH;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.service_metrics_1d_mv
+TO observex.service_metrics_1d
+AS SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.service_metrics_1h
+GROUP BY team_id, timestamp_day, service_name;
+
+-- =============================================================================
+-- ENDPOINT METRICS - Cascaded hourly and daily tiers
+-- =============================================================================
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1h_mv
+TO observex.endpoint_metrics_1h
+AS SELECT
+    team_id,
+    toStartOfHour(timestamp_minute) AS timestamp_hour,
+    service_name,
+    operation_name,
+    http_method,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.endpoint_metrics_1m
+GROUP BY team_id, timestamp_hour, service_name, operation_name, http_method;
+
+CREATE TABLE IF NOT EXISTS observex.endpoint_metrics_1d (
+    team_id UUID,
+    timestamp_day DateTime,
+    service_name LowCardinality(String),
+    operation_name LowCardinality(String),
+    http_method LowCardinality(String),
+    request_count_state AggregateFunction(sum, UInt64),
+    error_count_state AggregateFunction(sum, UInt64),
+    latency_avg_state AggregateFunction(avgWeighted, UInt64, UInt32),
+    latency_quantiles_state AggregateFunction(quantilesTDigestWeighted(0.5, 0.9, 0.95, 0.99), UInt64, UInt32),
+    latency_max_state AggregateFunction(max, UInt64)
+) ENGINE = AggregatingMergeTree()
+PARTITION BY (toYYYYMM(timestamp_day), team_id)
+ORDER BY (team_id, service_name, operation_name, http_method, timestamp_day)
+TTL timestamp_day + INTERVAL 13 MONTH;
+
+CREATE MATERIALIZED VIEW IF NOT EXISTS observex.endpoint_metrics_1d_mv
+TO observex.endpoint_metrics_1d
+AS SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    operation_name,
+    http_method,
+    sumMergeState(request_count_state) AS request_count_state,
+    sumMergeState(error_count_state) AS error_count_state,
+    avgWeightedMergeState(latency_avg_state) AS latency_avg_state,
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state) AS latency_quantiles_state,
+    maxMergeState(latency_max_state) AS latency_max_state
+FROM observex.endpoint_metrics_1h
+GROUP BY team_id, timestamp_day, service_name, operation_name, http_method;
+
+-- =============================================================================
+-- BACKFILL - Complete days from the hourly rows
+-- =============================================================================
+INSERT INTO observex.service_metrics_1d
+SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name,
+    sumMergeState(request_count_state),
+    sumMergeState(error_count_state),
+    avgWeightedMergeState(latency_avg_state),
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state),
+    maxMergeState(latency_max_state)
+FROM observex.service_metrics_1h
+WHERE timestamp_hour < toStartOfHour(now())
+GROUP BY team_id, timestamp_day, service_name;
+
+INSERT INTO observex.endpoint_metrics_1d
+SELECT
+    team_id,
+    toStartOfDay(timestamp_hour) AS timestamp_day,
+    service_name, operation_name, http_method,
+    sumMergeState(request_count_state),
+    sumMergeState(error_count_state),
+    avgWeightedMergeState(latency_avg_state),
+    quantilesTDigestWeightedMergeState(0.5, 0.9, 0.95, 0.99)(latency_quantiles_state),
+    maxMergeState(latency_max_state)
+FROM observex.endpoint_metrics_1h
+WHERE timestamp_hour < toStartOfHour(now())
+GROUP BY team_id, timestamp_day, service_name, operation_name, http_method;